@@ -0,0 +1,298 @@
+/*
+ *  Copyright 2011 Tor-Einar Jarnbjo
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package de.jarnbjo.jsnappy;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+
+/**
+ * Common base class of the compressor implementations, containing the
+ * code for writing the Snappy tokens.
+ */
+abstract class AbstractCompressor {
+
+	// Only this many positions at the end of a match are added to the
+	// match tables, so that long matches and runs are skipped quickly.
+	static final int MAX_MATCH_INSERTS = 64;
+
+	// Offset of the match found by the last successful search. The
+	// match length is returned by the search methods, so that no
+	// objects have to be allocated per match.
+	int matchOffset;
+
+	// Like the reference implementation, the input is compressed in
+	// fragments, so that the match tables stay small enough for the CPU
+	// caches regardless of the input length. Matches may still refer to
+	// the previous fragment, but never further back than 64 KB, so that
+	// copy offsets always fit into two bytes.
+	static final int FRAGMENT_SIZE = 1 << 16;
+
+	Buffer compress(byte[] in, int offset, int length, Buffer out) {
+
+		if(out == null) {
+			out = new Buffer(SnappyCompressor.maxCompressedLength(length));
+		}
+		else {
+			out.ensureCapacity(SnappyCompressor.maxCompressedLength(length));
+		}
+
+		byte[] target = out.getData();
+		int targetIndex = writeLength(length, target, 0);
+		out.setLength(compressTokens(in, offset, length, target, targetIndex));
+		return out;
+	}
+
+	/**
+	 * Writes the tokens for <code>length</code> bytes from <code>in</code> at
+	 * <code>targetIndex</code> without the length preamble. The tokens only refer
+	 * to data from <code>offset</code> on.
+	 * @return the index after the last token written
+	 */
+	int compressTokens(byte[] in, int offset, int length, byte[] target, int targetIndex) {
+		int end = offset + length;
+		for(int fragment = offset; fragment < end; fragment += FRAGMENT_SIZE) {
+			int fragmentLength = Math.min(FRAGMENT_SIZE, end - fragment);
+			targetIndex = compressFragment(in, offset, fragment, fragmentLength, target, targetIndex);
+		}
+		return targetIndex;
+	}
+
+	// Staging arrays for buffers without an accessible backing array. The
+	// fragments of one input are appended to the input window, so that
+	// matches into the previous fragment are still found. Only when the
+	// window is full, the previous fragment, which is as far back as
+	// matches can reach, is moved to its start.
+	static final int INPUT_WINDOW_FRAGMENTS = 4;
+	private byte[] inputWindow;
+	private int inputWindowStart;
+	private int inputWindowOffset;
+	private byte[] outputFragment;
+
+	/**
+	 * Compresses the remaining bytes of <code>in</code> into <code>out</code> and
+	 * advances the positions of both buffers. Backing arrays are used directly,
+	 * other buffers are transferred one fragment at a time with bulk operations.
+	 * @return the number of bytes written to <code>out</code>
+	 */
+	int compress(ByteBuffer in, ByteBuffer out) {
+
+		int length = in.remaining();
+		if(out.isReadOnly()) {
+			throw new ReadOnlyBufferException();
+		}
+		if(out.remaining() < SnappyCompressor.maxCompressedLength(length)) {
+			throw new BufferOverflowException();
+		}
+
+		int inStart = in.position();
+		int outStart = out.position();
+
+		byte[] target;
+		int targetIndex;
+		if(out.hasArray()) {
+			target = out.array();
+			targetIndex = out.arrayOffset() + outStart;
+		}
+		else {
+			target = outputFragment();
+			targetIndex = 0;
+		}
+
+		targetIndex = writeLength(length, target, targetIndex);
+
+		for(int fragment = 0; fragment < length; fragment += FRAGMENT_SIZE) {
+			int fragmentLength = Math.min(FRAGMENT_SIZE, length - fragment);
+			if(in.hasArray()) {
+				int start = in.arrayOffset() + inStart;
+				targetIndex = compressFragment(in.array(), start, start + fragment, fragmentLength, target, targetIndex);
+			}
+			else {
+				in.get(nextInputWindow(fragment == 0), inputWindowOffset(), fragmentLength);
+				targetIndex = compressInputWindow(fragmentLength, target, targetIndex);
+			}
+			if(!out.hasArray()) {
+				out.put(target, 0, targetIndex);
+				targetIndex = 0;
+			}
+		}
+
+		// the casts are required for running on Java 8, where ByteBuffer
+		// does not override position(int)
+		((java.nio.Buffer) in).position(in.limit());
+		if(out.hasArray()) {
+			((java.nio.Buffer) out).position(targetIndex - out.arrayOffset());
+		}
+		else {
+			// the length of empty input
+			out.put(target, 0, targetIndex);
+		}
+		return out.position() - outStart;
+	}
+
+	/**
+	 * Returns the input window, into which the caller copies the next fragment
+	 * at <code>inputWindowOffset()</code> before calling <code>compressInputWindow</code>.
+	 * @param first true for the first fragment of an input
+	 */
+	byte[] nextInputWindow(boolean first) {
+		if(inputWindow == null) {
+			inputWindow = new byte[INPUT_WINDOW_FRAGMENTS * FRAGMENT_SIZE];
+		}
+		if(first) {
+			inputWindowStart = 0;
+			inputWindowOffset = 0;
+		}
+		else {
+			// only the last fragment is shorter than FRAGMENT_SIZE, so the
+			// previous fragment always ends FRAGMENT_SIZE bytes further on
+			inputWindowOffset += FRAGMENT_SIZE;
+			if(inputWindowOffset == inputWindow.length) {
+				System.arraycopy(inputWindow, inputWindowOffset - FRAGMENT_SIZE, inputWindow, 0, FRAGMENT_SIZE);
+				inputWindowOffset = FRAGMENT_SIZE;
+			}
+			inputWindowStart = inputWindowOffset - FRAGMENT_SIZE;
+		}
+		return inputWindow;
+	}
+
+	/**
+	 * Returns the index in the input window, at which the next fragment is expected.
+	 */
+	int inputWindowOffset() {
+		return inputWindowOffset;
+	}
+
+	int compressInputWindow(int length, byte[] target, int targetIndex) {
+		return compressFragment(inputWindow, inputWindowStart, inputWindowOffset, length, target, targetIndex);
+	}
+
+	/**
+	 * Returns a staging array large enough for the compressed data of one fragment
+	 * and the length preamble.
+	 */
+	byte[] outputFragment() {
+		if(outputFragment == null) {
+			outputFragment = new byte[SnappyCompressor.maxCompressedLength(FRAGMENT_SIZE)];
+		}
+		return outputFragment;
+	}
+
+	/**
+	 * Writes the tokens for <code>length</code> bytes from <code>in</code> at
+	 * <code>targetIndex</code>. Copies may refer to data from <code>start</code>,
+	 * the beginning of the input, but must have an offset less than 64 KB.
+	 * Fragments of one input are passed in order.
+	 * @return the index after the last token written
+	 */
+	abstract int compressFragment(byte[] in, int start, int offset, int length, byte[] target, int targetIndex);
+
+	// The length is treated as unsigned, so that lengths up to 2**32 - 1
+	// can be written.
+	static int writeLength(int length, byte[] target, int targetIndex) {
+		int l = length;
+		while((l & ~0x7f) != 0) {
+			target[targetIndex++] = (byte)(0x80 | (l&0x7f));
+			l >>>= 7;
+		}
+		target[targetIndex++] = (byte)l;
+		return targetIndex;
+	}
+
+	static int writeLiteral(byte[] in, int offset, int length, byte[] target, int targetIndex) {
+		int len = length - 1;
+		if (len < 60) {
+			target[targetIndex++] = (byte)(len<<2);
+		}
+		else if (len < 0x100) {
+			target[targetIndex++] = (byte)(60<<2);
+			target[targetIndex++] = (byte)len;
+		}
+		else if (len < 0x10000) {
+			target[targetIndex++] = (byte)(61<<2);
+			target[targetIndex++] = (byte)len;
+			target[targetIndex++] = (byte)(len>>8);
+		}
+		else if (len < 0x1000000) {
+			target[targetIndex++] = (byte)(62<<2);
+			target[targetIndex++] = (byte)len;
+			target[targetIndex++] = (byte)(len>>8);
+			target[targetIndex++] = (byte)(len>>16);
+		}
+		else {
+			target[targetIndex++] = (byte)(63<<2);
+			target[targetIndex++] = (byte)len;
+			target[targetIndex++] = (byte)(len>>8);
+			target[targetIndex++] = (byte)(len>>16);
+			target[targetIndex++] = (byte)(len>>24);
+		}
+		System.arraycopy(in, offset, target, targetIndex, length);
+		return targetIndex + length;
+	}
+
+	static int writeCopy(int offset, int length, byte[] target, int targetIndex) {
+		// A copy token holds at most 64 bytes. Like the reference
+		// implementation, 60 bytes are emitted before the last token
+		// if required, so that the last token has at least 4 bytes.
+		while(length >= 68) {
+			targetIndex = writeCopyToken(offset, 64, target, targetIndex);
+			length -= 64;
+		}
+		if(length > 64) {
+			targetIndex = writeCopyToken(offset, 60, target, targetIndex);
+			length -= 60;
+		}
+		return writeCopyToken(offset, length, target, targetIndex);
+	}
+
+	private static int writeCopyToken(int offset, int length, byte[] target, int targetIndex) {
+		if(length <= 11 && offset < 2048) {
+			target[targetIndex++] = (byte)(1 | ((length-4)<<2) | ((offset>>3)&0xe0));
+			target[targetIndex++] = (byte)(offset&0xff);
+		}
+		else if (offset < 65536) {
+			target[targetIndex++] = (byte)(2 | ((length-1)<<2));
+			target[targetIndex++] = (byte)(offset);
+			target[targetIndex++] = (byte)(offset>>8);
+		}
+		else {
+			target[targetIndex++] = (byte)(3 | ((length-1)<<2));
+			target[targetIndex++] = (byte)(offset);
+			target[targetIndex++] = (byte)(offset>>8);
+			target[targetIndex++] = (byte)(offset>>16);
+			target[targetIndex++] = (byte)(offset>>24);
+		}
+		return targetIndex;
+	}
+
+	static final ByteAccess BYTES = ByteAccess.INSTANCE;
+
+	static int toInt(byte[] data, int offset) {
+		return BYTES.getInt(data, offset);
+	}
+
+	// Length of a run of the byte preceding index, starting at index,
+	// if the four bytes in word (the bytes at index) continue the run.
+	static int runLength(byte[] source, int index, int word, int end, int maxLength) {
+		if(word != (source[index-1]&0xff) * 0x01010101) {
+			return 0;
+		}
+		// each further byte of the run equals its predecessor
+		return 4 + BYTES.matchLength(source, index + 3, index + 4, Math.min(maxLength, end - index) - 4);
+	}
+
+}
@@ -0,0 +1,176 @@
+/*
+ *  Copyright 2011 Tor-Einar Jarnbjo
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package de.jarnbjo.jsnappy;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Thread-safe pool of buffers, which can be shared by many threads to reuse
+ * buffers for compressed and decompressed data within a fixed memory budget.
+ * </p>
+ *
+ * <p>
+ * Buffers are kept in size classes of powers of two. <code>acquire</code> returns
+ * a buffer with at least the requested capacity, either a released buffer of the
+ * matching size class or a newly allocated buffer with the capacity rounded up to
+ * the next power of two. <code>release</code> returns a buffer to the pool unless
+ * the total capacity of the retained buffers would exceed the limit, in which case
+ * the buffer is left to the garbage collector. To avoid contention, the free lists
+ * are split into stripes, which are selected by the calling thread.
+ * </p>
+ *
+ * <p>
+ * A buffer must not be used after it has been released and must not be released
+ * twice. A pool can be passed to the constructors of the SNZ streams, which then
+ * acquire their internal buffers from the pool and release them when closed. With
+ * <code>SnappyCompressor</code> and <code>SnappyDecompressor</code>, the pool is
+ * used like this:
+ * </p>
+ *
+ * <pre>
+ * Buffer out = pool.acquire(SnappyCompressor.maxCompressedLength(length));
+ * SnappyCompressor.compress(in, offset, length, out);
+ * ...
+ * pool.release(out);
+ * </pre>
+ *
+ * @author Tor-Einar Jarnbjo
+ * @since 1.1
+ */
+public class BufferPool {
+
+	private static final int SIZE_CLASSES = 31;
+
+	private final long maxRetainedBytes;
+	private final AtomicLong retainedBytes = new AtomicLong();
+
+	private final Stripe[] stripes;
+	private final int stripeMask;
+
+	/**
+	 * Creates a pool retaining buffers with a total capacity of no more than
+	 * <code>maxRetainedBytes</code>.
+	 * @param maxRetainedBytes maximum total capacity of the buffers kept in the pool
+	 */
+	public BufferPool(long maxRetainedBytes) {
+		if(maxRetainedBytes < 0) {
+			throw new IllegalArgumentException("maxRetainedBytes must not be negative");
+		}
+		this.maxRetainedBytes = maxRetainedBytes;
+		// the number of available CPUs rounded up to a power of two
+		int n = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1));
+		stripes = new Stripe[n];
+		for(int i = 0; i < n; i++) {
+			stripes[i] = new Stripe();
+		}
+		stripeMask = n - 1;
+	}
+
+	/**
+	 * Returns a buffer with a capacity of at least <code>capacity</code> bytes
+	 * and a length of 0.
+	 * @param capacity minimum capacity
+	 * @return a buffer from the pool or a newly allocated buffer
+	 */
+	public Buffer acquire(int capacity) {
+		if(capacity < 0) {
+			throw new IllegalArgumentException("capacity must not be negative");
+		}
+		// buffers in size class c have a capacity of at least 2**c
+		int sizeClass = capacity <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(capacity - 1);
+		if(sizeClass >= SIZE_CLASSES) {
+			return new Buffer(capacity);
+		}
+		int s = stripe();
+		for(int i = 0; i <= stripeMask; i++) {
+			Buffer buffer = stripes[(s + i) & stripeMask].poll(sizeClass);
+			if(buffer != null) {
+				retainedBytes.addAndGet(-buffer.getData().length);
+				buffer.setLength(0);
+				return buffer;
+			}
+		}
+		return new Buffer(1 << sizeClass);
+	}
+
+	/**
+	 * Returns a buffer to the pool. The buffer is dropped if the pool has
+	 * reached its limit.
+	 * @param buffer buffer, which is no longer used by the caller
+	 */
+	public void release(Buffer buffer) {
+		byte[] data = buffer.getData();
+		if(data == null || data.length == 0) {
+			return;
+		}
+		int capacity = data.length;
+		long r;
+		do {
+			r = retainedBytes.get();
+			if(r + capacity > maxRetainedBytes) {
+				return;
+			}
+		} while(!retainedBytes.compareAndSet(r, r + capacity));
+		stripes[stripe()].push(31 - Integer.numberOfLeadingZeros(capacity), buffer);
+	}
+
+	/**
+	 * Returns the total capacity of the buffers currently kept in the pool.
+	 * @return retained bytes
+	 */
+	public long getRetainedBytes() {
+		return retainedBytes.get();
+	}
+
+	private int stripe() {
+		return (int) Thread.currentThread().getId() & stripeMask;
+	}
+
+	// Acquires a buffer from pool or allocates a new one if pool is null.
+	static Buffer borrow(BufferPool pool, int capacity) {
+		return pool == null ? new Buffer(capacity) : pool.acquire(capacity);
+	}
+
+	// Releases a buffer to pool if both are not null.
+	static void giveBack(BufferPool pool, Buffer buffer) {
+		if(pool != null && buffer != null) {
+			pool.release(buffer);
+		}
+	}
+
+	private static class Stripe {
+
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		private final ArrayDeque<Buffer>[] buckets = new ArrayDeque[SIZE_CLASSES];
+
+		synchronized Buffer poll(int sizeClass) {
+			ArrayDeque<Buffer> bucket = buckets[sizeClass];
+			return bucket == null ? null : bucket.pollFirst();
+		}
+
+		synchronized void push(int sizeClass, Buffer buffer) {
+			if(buckets[sizeClass] == null) {
+				buckets[sizeClass] = new ArrayDeque<Buffer>();
+			}
+			buckets[sizeClass].addFirst(buffer);
+		}
+
+	}
+
+}
@@ -0,0 +1,64 @@
+/*
+ *  Copyright 2011 Tor-Einar Jarnbjo
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package de.jarnbjo.jsnappy;
+
+/**
+ * Multi-byte reads from byte arrays used by the compressors. This class
+ * reads one byte at a time. On Java 9 and later, it is replaced by
+ * VarHandleByteAccess (compiled from src/main9), which reads eight bytes
+ * at a time. If that class is missing or cannot be loaded by the running
+ * JVM, this implementation is used.
+ */
+class ByteAccess {
+
+	static final ByteAccess INSTANCE = create();
+
+	private static ByteAccess create() {
+		try {
+			return (ByteAccess) Class.forName("de.jarnbjo.jsnappy.VarHandleByteAccess").getDeclaredConstructor().newInstance();
+		}
+		catch(Throwable t) {
+			// class not available or not loadable on this runtime
+			return new ByteAccess();
+		}
+	}
+
+	/**
+	 * Returns the four bytes at offset as a big endian int.
+	 */
+	int getInt(byte[] data, int offset) {
+		return
+			((data[offset]&0xff)<<24) |
+			((data[offset+1]&0xff)<<16) |
+			((data[offset+2]&0xff)<<8) |
+			(data[offset+3]&0xff);
+	}
+
+	/**
+	 * Returns the number of equal bytes, comparing data from the
+	 * offsets <code>a</code> and <code>b</code>, but not more than
+	 * <code>maxLength</code>.
+	 */
+	int matchLength(byte[] data, int a, int b, int maxLength) {
+		int l = 0;
+		while(l < maxLength && data[a+l] == data[b+l]) {
+			l++;
+		}
+		return l;
+	}
+
+}
@@ -0,0 +1,232 @@
+package de.jarnbjo.jsnappy;
+
+import java.util.Arrays;
+
+/**
+ * Compressor searching the previous 64 KB for matches through hash chains.
+ * <code>head</code> holds the latest position for each hash value and
+ * <code>prev</code> links every position in the window to the previous
+ * position with the same hash value. Both tables are sized from the length
+ * of the data reachable by matches, so that compressing short inputs with a
+ * new context is cheap, and grown when longer inputs are compressed. The
+ * search effort per position is bounded by the maximum chain depth.
+ */
+class ChainBasedCompressor extends AbstractCompressor {
+
+	private static final int WINDOW_BITS = 16;
+	static final int WINDOW_SIZE = 1 << WINDOW_BITS;
+	private static final int HASH_BITS = 15;
+
+	final int maxChainDepth;
+	final int goodLength;
+	final int lazyLength;
+
+	// Positions are stored with a running base added, as in
+	// TableBasedCompressor, so that the arrays need not be cleared
+	// between invocations.
+	private int[] head;
+	private int[] prev;
+	private int hashShift;
+	private int windowMask;
+	private int base = 1;
+
+	/**
+	 * @param maxChainDepth maximum number of candidates examined per position
+	 * @param goodLength match length at which the search is stopped
+	 * @param lazyLength matches shorter than this are only taken if the next
+	 *   position does not start a longer match, 0 disables lazy matching
+	 */
+	ChainBasedCompressor(int maxChainDepth, int goodLength, int lazyLength) {
+		this.maxChainDepth = maxChainDepth;
+		this.goodLength = goodLength;
+		this.lazyLength = lazyLength;
+	}
+
+	int compressFragment(byte[] in, int start, int offset, int length, byte[] target, int targetIndex) {
+
+		int lasthit = offset;
+
+		int bias = prepareTables(start, offset, length);
+		int end = offset + length;
+
+		int limit = end - 4;
+		int i = offset;
+		int word = i < limit ? toInt(in, i) : 0;
+
+		while(i < limit) {
+			int len = i == start ? 0 : search(in, i, word, start, end, bias);
+			if(len > 0) {
+				int matchPosition = i;
+				int offset0 = matchOffset;
+				// lazy evaluation: move the match start forward as long as
+				// the next position starts a longer match
+				while(len < lazyLength && i + 1 < limit) {
+					insert(word, i + bias);
+					word = (word << 8) | (in[i+4] & 0xff);
+					i++;
+					int len2 = search(in, i, word, start, end, bias);
+					if(len2 <= len) {
+						break;
+					}
+					matchPosition = i;
+					offset0 = matchOffset;
+					len = len2;
+				}
+				if(lasthit < matchPosition) {
+					targetIndex = writeLiteral(in, lasthit, matchPosition - lasthit, target, targetIndex);
+				}
+				targetIndex = writeCopy(offset0, len, target, targetIndex);
+				lasthit = matchPosition + len;
+				// only the last positions of long matches are added
+				if(lasthit - i > MAX_MATCH_INSERTS) {
+					i = lasthit - MAX_MATCH_INSERTS;
+					if(i < limit) {
+						word = toInt(in, i);
+					}
+				}
+				for(; i < lasthit && i < limit; i++) {
+					insert(word, i + bias);
+					word = (word << 8) | (in[i+4] & 0xff);
+				}
+				i = lasthit;
+			}
+			else {
+				insert(word, i + bias);
+				word = (word << 8) | (in[i+4] & 0xff);
+				i++;
+			}
+		}
+
+		if (lasthit < end) {
+			targetIndex = writeLiteral(in, lasthit, end - lasthit, target, targetIndex);
+		}
+
+		return targetIndex;
+	}
+
+	// Returns the bias to add to positions in in the current invocation. The
+	// tables are used for the data from start, rounded up to a power of two,
+	// but not less than 2**8 and not more than the window and 2**HASH_BITS
+	// entries, as in TableBasedCompressor. Larger tables from earlier
+	// invocations are kept and only partially used, so that the output
+	// does not depend on earlier invocations.
+	int prepareTables(int start, int offset, int length) {
+		int bits = Math.min(WINDOW_BITS, Math.max(8, 32 - Integer.numberOfLeadingZeros(offset + length - start - 1)));
+		int hashBits = Math.min(HASH_BITS, bits);
+		if(prev == null || prev.length < 1 << bits || head.length < 1 << hashBits) {
+			head = new int[1 << hashBits];
+			prev = new int[1 << bits];
+			base = 1;
+		}
+		else if(base > Integer.MAX_VALUE - length) {
+			Arrays.fill(head, 0);
+			Arrays.fill(prev, 0);
+			base = 1;
+		}
+		hashShift = 32 - hashBits;
+		windowMask = (1 << bits) - 1;
+		int bias = base - offset;
+		base += length;
+		return bias;
+	}
+
+	private int hash(int word) {
+		return (word * 0x1e35a7bd) >>> hashShift;
+	}
+
+	void insert(int word, int biasedPosition) {
+		int h = hash(word);
+		prev[biasedPosition & windowMask] = head[h];
+		head[h] = biasedPosition;
+	}
+
+	private int search(byte[] source, int index, int word, int start, int length, int bias) {
+
+		// at least five consecutive bytes, so we do
+		// run-length-encoding of the last four
+		int len = runLength(source, index, word, length, length - index);
+		if(len > 0) {
+			matchOffset = 1;
+			return len;
+		}
+
+		int maxLength = length - index;
+		int res = 0;
+
+		int candidate = head[hash(word)] - bias;
+		for(int depth = maxChainDepth; depth > 0 && candidate >= start; depth--) {
+			int offset = index - candidate;
+			if(offset > windowMask) {
+				// older positions in the chain may have been overwritten
+				break;
+			}
+			// compare the byte after the current best match first
+			if(source[candidate + res] == source[index + res]) {
+				int l = BYTES.matchLength(source, candidate, index, maxLength);
+				if(l > res) {
+					matchOffset = offset;
+					res = l;
+					if(l >= goodLength || l == maxLength) {
+						break;
+					}
+				}
+			}
+			int next = prev[(candidate + bias) & windowMask] - bias;
+			if(next >= candidate) {
+				break;
+			}
+			candidate = next;
+		}
+
+		return res >= 4 ? res : 0;
+	}
+
+	/**
+	 * Collects all match lengths up to 64 available at <code>index</code>. For every
+	 * length from 4 up to the returned maximum, <code>offsets[length]</code> is set to
+	 * the smallest offset providing a match of at least that length. If 64 is returned,
+	 * the match at <code>offsets[64]</code> may be longer.
+	 * @return the longest match length found or 0
+	 */
+	int findMatches(byte[] source, int index, int word, int start, int length, int bias, int[] offsets) {
+
+		int maxLength = Math.min(64, length - index);
+		int res = 0;
+
+		if(index > start) {
+			int len = runLength(source, index, word, length, maxLength);
+			for(int l = 4; l <= len; l++) {
+				offsets[l] = 1;
+			}
+			res = len;
+		}
+
+		int candidate = head[hash(word)] - bias;
+		for(int depth = maxChainDepth; depth > 0 && candidate >= start && res < maxLength; depth--) {
+			int offset = index - candidate;
+			if(offset > windowMask) {
+				break;
+			}
+			if(source[candidate + res] == source[index + res]) {
+				int l = BYTES.matchLength(source, candidate, index, maxLength);
+				for(int ll = Math.max(res + 1, 4); ll <= l; ll++) {
+					offsets[ll] = offset;
+				}
+				if(l > res) {
+					res = l;
+					if(l >= goodLength) {
+						break;
+					}
+				}
+			}
+			int next = prev[(candidate + bias) & windowMask] - bias;
+			if(next >= candidate) {
+				break;
+			}
+			candidate = next;
+		}
+
+		return res >= 4 ? res : 0;
+	}
+
+}
@@ -0,0 +1,178 @@
+/*
+ *  Copyright 2011 Tor-Einar Jarnbjo
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package de.jarnbjo.jsnappy;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * Reusable compressor with a fixed compression effort. A context keeps
+ * its internal match tables between invocations, so that compressing
+ * many blocks with the same context avoids allocating and clearing the
+ * tables for every block.
+ * </p>
+ *
+ * <p>
+ * The effort is mapped to the parameters of the match finder. Efforts from 1 to 29
+ * use a single hash table, where the table size, the rate at which incompressible
+ * data is skipped and the number of positions added to the table per match grow with
+ * the effort. Efforts from 30 to 99 use hash chains over the last 64 KB, where the
+ * maximum chain depth, the match length at which the search is stopped and, from
+ * effort 50, lazy matching grow with the effort. Effort 100 computes the smallest
+ * token sequence for the matches found.
+ * </p>
+ *
+ * <p>
+ * Compressed size and speed measured in 64 KB blocks on a 7 MB mix of text, source
+ * code, random and zero filled data (single thread, Java 17):
+ * </p>
+ *
+ * <table border="1" summary="compression effort">
+ * <tr><th>effort</th><th>compressed size</th><th>MB/s</th></tr>
+ * <tr><td>1</td><td>32.4%</td><td>240</td></tr>
+ * <tr><td>10</td><td>32.2%</td><td>244</td></tr>
+ * <tr><td>20</td><td>31.8%</td><td>240</td></tr>
+ * <tr><td>29</td><td>31.7%</td><td>240</td></tr>
+ * <tr><td>30</td><td>30.9%</td><td>159</td></tr>
+ * <tr><td>40</td><td>29.9%</td><td>133</td></tr>
+ * <tr><td>50</td><td>28.9%</td><td>81</td></tr>
+ * <tr><td>60</td><td>28.5%</td><td>59</td></tr>
+ * <tr><td>70</td><td>28.2%</td><td>51</td></tr>
+ * <tr><td>80</td><td>28.0%</td><td>40</td></tr>
+ * <tr><td>90</td><td>27.9%</td><td>28</td></tr>
+ * <tr><td>99</td><td>27.9%</td><td>20</td></tr>
+ * <tr><td>100</td><td>27.1%</td><td>3</td></tr>
+ * </table>
+ *
+ * <p>
+ * Instances are created with <code>SnappyCompressor.newContext</code>.
+ * A context is not thread safe and must not be used by several threads
+ * at the same time.
+ * </p>
+ *
+ * @author Tor-Einar Jarnbjo
+ * @since 1.1
+ */
+public class CompressionContext {
+
+	private final int effort;
+
+	final AbstractCompressor compressor;
+
+	CompressionContext(int effort) {
+		if(effort < 1 || effort > 100) {
+			throw new IllegalArgumentException("Compression effort must be an integer from 0 (fastest, less compression) to 100 (slowest, highest compression)");
+		}
+		this.effort = effort;
+		if(effort < 30) {
+			// hash table size from 2**14 entries, as in the reference
+			// implementation, to 2**16 entries, probe distance
+			// growing every 32 to every 256 misses and 16 to 64 positions
+			// per match added to the table
+			compressor = new TableBasedCompressor(
+					14 + (effort - 1) * 2 / 28,
+					5 + (effort - 1) * 3 / 28,
+					16 + (effort - 1) * 48 / 28);
+		}
+		else if(effort < 100) {
+			// chain depth growing exponentially from 2 to 512, good enough
+			// length from 8 to 64, lazy matching from effort 50
+			int goodLength = 8 + (effort - 30) * 56 / 69;
+			compressor = new ChainBasedCompressor(
+					(int) Math.round(Math.pow(2, 1 + (effort - 30) * 8 / 69.)),
+					goodLength,
+					effort < 50 ? 0 : goodLength);
+		}
+		else {
+			compressor = new OptimalParsingCompressor(256, 64);
+		}
+	}
+
+	/**
+	 * Returns the compression effort used by this context.
+	 * @return compression effort
+	 */
+	public int getEffort() {
+		return effort;
+	}
+
+	/**
+	 * Equivalent to <code>compress(in, 0, in.length, null)</code>.
+	 * @param in data to be compressed
+	 * @return compressed data block
+	 */
+	public Buffer compress(byte[] in) {
+		return compress(in, 0, in.length, null);
+	}
+
+	/**
+	 * Equivalent to <code>compress(in, 0, in.length, out)</code>.
+	 * @param in data to be compressed
+	 * @param out Buffer for compressed data block
+	 * @return reference to <code>out</code>
+	 */
+	public Buffer compress(byte[] in, Buffer out) {
+		return compress(in, 0, in.length, out);
+	}
+
+	/**
+	 * Equivalent to <code>compress(in.getData(), 0, in.getLength(), out)</code>.
+	 * @param in data to be compressed
+	 * @param out Buffer for compressed data block
+	 * @return reference to <code>out</code>
+	 */
+	public Buffer compress(Buffer in, Buffer out) {
+		return compress(in.getData(), 0, in.getLength(), out);
+	}
+
+	/**
+	 * Compress the data contained in <code>in</code> from <code>offset</code>
+	 * and <code>length</code> bytes with the effort of this context. If an
+	 * output buffer is provided, the buffer is reused for the compressed data.
+	 * If the buffer is too small, its capacity is expanded to fit the result.
+	 * If a <code>null</code> argument is passed, a new buffer is allocated.
+	 *
+	 * @param in input data
+	 * @param offset offset into input data
+	 * @param length length of input data
+	 * @param out output buffer or null (new buffer will be allocated)
+	 * @return reference to <code>out</code>
+	 */
+	public Buffer compress(byte[] in, int offset, int length, Buffer out) {
+		return compressor.compress(in, offset, length, out);
+	}
+
+	/**
+	 * Compress the remaining bytes of <code>in</code>, from its position to its limit,
+	 * into <code>out</code>, starting at the position of <code>out</code>. The positions
+	 * of both buffers are advanced past the data read and written. Heap and direct
+	 * buffers are supported. Direct buffers are transferred through internal arrays of
+	 * this context, one 64 KB fragment at a time.
+	 *
+	 * @param in input data
+	 * @param out output buffer with at least
+	 *   <code>SnappyCompressor.maxCompressedLength(in.remaining())</code> bytes remaining
+	 * @return number of bytes written to <code>out</code>
+	 * @throws BufferOverflowException if <code>out</code> has too few bytes remaining
+	 * @throws java.nio.ReadOnlyBufferException if <code>out</code> is read-only
+	 */
+	public int compress(ByteBuffer in, ByteBuffer out) throws BufferOverflowException {
+		return compressor.compress(in, out);
+	}
+
+}
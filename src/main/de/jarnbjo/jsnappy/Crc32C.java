@@ -0,0 +1,107 @@
+/*
+ *  Copyright 2011 Tor-Einar Jarnbjo
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package de.jarnbjo.jsnappy;
+
+/**
+ * CRC-32C (Castagnoli) checksums as used by the Snappy framing format. This
+ * class computes the checksum with eight lookup tables, processing eight
+ * bytes per step. On Java 9 and later, it is replaced by JdkCrc32C (compiled
+ * from src/main9), which uses java.util.zip.CRC32C, an intrinsic on common
+ * platforms. If that class is missing or cannot be loaded by the running JVM,
+ * this implementation is used. Instances are not thread-safe.
+ */
+class Crc32C {
+
+	private static final Class<?> JDK_IMPLEMENTATION = load();
+
+	private static final int[][] TABLES = new int[8][256];
+
+	static {
+		for(int i = 0; i < 256; i++) {
+			int c = i;
+			for(int k = 0; k < 8; k++) {
+				c = (c >>> 1) ^ ((c & 1) * 0x82f63b78);
+			}
+			TABLES[0][i] = c;
+		}
+		// TABLES[t][i] is the checksum of the byte i followed by t zero bytes
+		for(int t = 1; t < 8; t++) {
+			for(int i = 0; i < 256; i++) {
+				int c = TABLES[t-1][i];
+				TABLES[t][i] = (c >>> 8) ^ TABLES[0][c & 0xff];
+			}
+		}
+	}
+
+	private static Class<?> load() {
+		try {
+			Class<?> c = Class.forName("de.jarnbjo.jsnappy.JdkCrc32C");
+			c.getDeclaredConstructor().newInstance();
+			return c;
+		}
+		catch(Throwable t) {
+			// class not available or not loadable on this runtime
+			return null;
+		}
+	}
+
+	/**
+	 * Returns a new instance, using java.util.zip.CRC32C if available.
+	 */
+	static Crc32C newInstance() {
+		if(JDK_IMPLEMENTATION != null) {
+			try {
+				return (Crc32C) JDK_IMPLEMENTATION.getDeclaredConstructor().newInstance();
+			}
+			catch(Exception e) {
+				// already instantiated once in load
+			}
+		}
+		return new Crc32C();
+	}
+
+	/**
+	 * Returns the checksum of <code>length</code> bytes of <code>data</code>
+	 * from <code>offset</code>.
+	 */
+	int compute(byte[] data, int offset, int length) {
+		final int[] t0 = TABLES[0], t1 = TABLES[1], t2 = TABLES[2], t3 = TABLES[3];
+		final int[] t4 = TABLES[4], t5 = TABLES[5], t6 = TABLES[6], t7 = TABLES[7];
+		int crc = ~0;
+		int end = offset + length;
+		for(; offset + 8 <= end; offset += 8) {
+			int lo = crc ^
+				((data[offset]&0xff) | ((data[offset+1]&0xff)<<8) |
+				((data[offset+2]&0xff)<<16) | ((data[offset+3]&0xff)<<24));
+			crc =
+				t7[lo & 0xff] ^ t6[(lo >>> 8) & 0xff] ^ t5[(lo >>> 16) & 0xff] ^ t4[lo >>> 24] ^
+				t3[data[offset+4]&0xff] ^ t2[data[offset+5]&0xff] ^ t1[data[offset+6]&0xff] ^ t0[data[offset+7]&0xff];
+		}
+		for(; offset < end; offset++) {
+			crc = (crc >>> 8) ^ t0[(crc ^ data[offset]) & 0xff];
+		}
+		return ~crc;
+	}
+
+	/**
+	 * Returns the masked checksum stored in the Snappy framing format.
+	 */
+	static int mask(int crc) {
+		return ((crc >>> 15) | (crc << 17)) + 0xa282ead8;
+	}
+
+}
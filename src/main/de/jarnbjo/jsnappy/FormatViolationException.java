@@ -17,6 +17,7 @@ public class FormatViolationException extends IllegalArgumentException {
 	}
 	
 	public FormatViolationException(String message, int offset) {
+		super(message);
 		this.offset = offset;
 	}
 	
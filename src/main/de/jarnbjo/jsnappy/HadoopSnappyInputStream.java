@@ -0,0 +1,230 @@
+/*
+ *  Copyright 2011 Tor-Einar Jarnbjo
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package de.jarnbjo.jsnappy;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * <p>
+ * This class implements a stream filter for reading compressed data in the block
+ * format used by the Hadoop Snappy codec, as written by <code>HadoopSnappyOutputStream</code>.
+ * </p>
+ *
+ * <p>
+ * Blocks may consist of any number of sub-blocks, which are decompressed one at a
+ * time. The buffers are allocated for the largest sub-block seen so far and reused.
+ * Blocks longer than the maximum block length of the reader are rejected, so that
+ * invalid lengths cannot cause arbitrarily large allocations.
+ * </p>
+ *
+ * @author Tor-Einar Jarnbjo
+ * @since 1.1
+ */
+public class HadoopSnappyInputStream extends InputStream {
+
+	/**
+	 * Default maximum uncompressed block length, well above the default
+	 * buffer size of the Hadoop codec.
+	 */
+	public static final int DEFAULT_MAX_BLOCK_LENGTH = 1 << 22;
+
+	private final InputStream delegate;
+	private final int maxBlockLength;
+
+	private boolean eof = false;
+
+	// uncompressed bytes left in the current block
+	private int blockRemaining = 0;
+
+	private final byte[] header = new byte[4];
+	private final Buffer cbuffer = new Buffer();
+
+	private final Buffer dbuffer = new Buffer();
+	private int dbufferIndex = 0;
+
+	private final byte[] tmpBuffer = new byte[1];
+
+	/**
+	 * Creates a new HadoopSnappyInputStream, reading from the provided InputStream <code>in</code>.
+	 * @param in
+	 */
+	public HadoopSnappyInputStream(InputStream in) {
+		this(in, DEFAULT_MAX_BLOCK_LENGTH);
+	}
+
+	/**
+	 * Creates a new HadoopSnappyInputStream, reading from the provided InputStream <code>in</code>
+	 * and accepting blocks with up to <code>maxBlockLength</code> uncompressed bytes.
+	 * @param in
+	 * @param maxBlockLength maximum number of uncompressed bytes in a block
+	 * @throws IllegalArgumentException if maxBlockLength is not positive
+	 */
+	public HadoopSnappyInputStream(InputStream in, int maxBlockLength) {
+		if(maxBlockLength <= 0) {
+			throw new IllegalArgumentException("Illegal maximum block length: " + maxBlockLength);
+		}
+		this.delegate = in;
+		this.maxBlockLength = maxBlockLength;
+	}
+
+	/**
+	 * Reads a single byte from the uncompressed stream.
+	 * @throws FormatViolationException if the input data is invalid
+	 * @return the read byte or -1 if end of stream is reached
+	 */
+	@Override
+	public int read() throws IOException {
+		return read(tmpBuffer, 0, 1) < 0 ? -1 : tmpBuffer[0] & 0xff;
+	}
+
+	/**
+	 * Fills the byte array with data from the uncompressed stream starting
+	 * at the specified <code>offset</code> and no more than <code>length</code> bytes.
+	 * @param b destination array
+	 * @param offset offset into the byte array, on which the data is written
+	 * @param length maximum number of bytes to write into the byte array
+	 * @throws FormatViolationException if the input data is invalid
+	 * @return the number of bytes read or -1 if end of stream is reached
+	 */
+	@Override
+	public int read(byte[] b, int offset, int length) throws IOException {
+
+		if(eof) {
+			return -1;
+		}
+
+		while(dbufferIndex >= dbuffer.getLength()) {
+			int n = readSubBlock(b, offset, length);
+			if(n < 0) {
+				eof = true;
+				return -1;
+			}
+			if(n > 0) {
+				return n;
+			}
+		}
+
+		if(length > dbuffer.getLength() - dbufferIndex) {
+			length = dbuffer.getLength() - dbufferIndex;
+		}
+
+		System.arraycopy(dbuffer.getData(), dbufferIndex, b, offset, length);
+		dbufferIndex += length;
+
+		return length;
+	}
+
+	/**
+	 * Returns the number of decompressed bytes, which can be read without
+	 * reading from the underlying stream.
+	 */
+	@Override
+	public int available() throws IOException {
+		return dbuffer.getLength() - dbufferIndex;
+	}
+
+	/**
+	 * Closes the underlying input stream.
+	 */
+	@Override
+	public void close() throws IOException {
+		delegate.close();
+	}
+
+	// Reads the next sub-block, starting a new block if necessary. Its data is
+	// decompressed directly into b if it fits and the number of bytes is returned,
+	// otherwise it is decompressed into dbuffer and 0 is returned. Returns -1 at
+	// the end of the stream.
+	private int readSubBlock(byte[] b, int offset, int length) throws IOException {
+
+		while(blockRemaining == 0) {
+			if(!readHeader()) {
+				return -1;
+			}
+			blockRemaining = toInt(header);
+			if(blockRemaining < 0 || blockRemaining > maxBlockLength) {
+				throw new FormatViolationException("Illegal block length: " + blockRemaining);
+			}
+		}
+
+		if(!readHeader()) {
+			throw new EOFException();
+		}
+		int cLength = toInt(header);
+		// checked before the buffer is grown for the sub-block
+		if(cLength < 0 || cLength > SnappyCompressor.maxCompressedLength(blockRemaining)) {
+			throw new FormatViolationException("Illegal sub-block length: " + cLength);
+		}
+
+		cbuffer.ensureCapacity(cLength);
+		byte[] c = cbuffer.getData();
+		readFully(c, cLength);
+
+		int dLength = SnappyDecompressor.getDecompressedLength(c, 0, cLength);
+		if(dLength > blockRemaining) {
+			throw new FormatViolationException("Sub-block exceeds block length: " + dLength);
+		}
+		blockRemaining -= dLength;
+
+		if(dLength <= length) {
+			// the sub-block fits, so it is decompressed directly
+			// into the caller's array instead of being copied
+			SnappyDecompressor.decompress(c, 0, cLength, b, offset);
+			return dLength;
+		}
+
+		SnappyDecompressor.decompress(c, 0, cLength, dbuffer);
+		dbufferIndex = 0;
+		return 0;
+	}
+
+	private static int toInt(byte[] b) {
+		return ((b[0] & 0xff) << 24) | ((b[1] & 0xff) << 16) | ((b[2] & 0xff) << 8) | (b[3] & 0xff);
+	}
+
+	// Reads a 4 byte length into header and returns false if
+	// the stream ends before the first byte.
+	private boolean readHeader() throws IOException {
+		int r = delegate.read(header, 0, 4);
+		if(r < 0) {
+			return false;
+		}
+		int o = r;
+		while(o < 4) {
+			r = delegate.read(header, o, 4 - o);
+			if(r < 0) {
+				throw new EOFException();
+			}
+			o += r;
+		}
+		return true;
+	}
+
+	private void readFully(byte[] b, int length) throws IOException {
+		int o = 0;
+		while(o < length) {
+			int r = delegate.read(b, o, length - o);
+			if(r < 0) {
+				throw new EOFException();
+			}
+			o += r;
+		}
+	}
+
+}
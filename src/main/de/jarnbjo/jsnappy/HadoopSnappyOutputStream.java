@@ -0,0 +1,197 @@
+/*
+ *  Copyright 2011 Tor-Einar Jarnbjo
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package de.jarnbjo.jsnappy;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * <p>
+ * This class implements a stream filter for writing compressed data in the block
+ * format used by the Hadoop Snappy codec.
+ * </p>
+ *
+ * <p>
+ * Each block starts with its uncompressed length as a 4 byte big endian integer,
+ * followed by one or more sub-blocks. Each sub-block consists of its compressed
+ * length as a 4 byte big endian integer and the raw Snappy data of no more than
+ * <code>subBlockSize</code> uncompressed bytes.
+ * </p>
+ *
+ * @author Tor-Einar Jarnbjo
+ * @since 1.1
+ */
+public class HadoopSnappyOutputStream extends OutputStream {
+
+	/**
+	 * Default block size, matching the default buffer size of the Hadoop codec.
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 262144;
+
+	private final OutputStream delegate;
+
+	private final int subBlockSize;
+
+	private final byte[] buffer;
+	private int bufferIndex;
+
+	private final Buffer cbuffer;
+
+	private final byte[] header = new byte[4];
+	private final byte[] tmpBuffer = new byte[1];
+
+	private int effort = SnappyCompressor.DEFAULT_EFFORT;
+	private CompressionContext context;
+
+	private boolean closed = false;
+
+	/**
+	 * Creates a new compressing output stream with the default block size,
+	 * writing each block as a single sub-block.
+	 * @param out target output stream
+	 */
+	public HadoopSnappyOutputStream(OutputStream out) {
+		this(out, DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * Creates a new compressing output stream with the specified block size,
+	 * writing each block as a single sub-block.
+	 * @param out target output stream
+	 * @param blockSize maximum number of uncompressed bytes in a block
+	 */
+	public HadoopSnappyOutputStream(OutputStream out, int blockSize) {
+		this(out, blockSize, blockSize);
+	}
+
+	/**
+	 * Creates a new compressing output stream with the specified block
+	 * and sub-block sizes.
+	 * @param out target output stream
+	 * @param blockSize maximum number of uncompressed bytes in a block
+	 * @param subBlockSize maximum number of uncompressed bytes in a sub-block
+	 * @throws IllegalArgumentException if either size is not positive
+	 */
+	public HadoopSnappyOutputStream(OutputStream out, int blockSize, int subBlockSize) {
+		if(blockSize <= 0 || subBlockSize <= 0) {
+			throw new IllegalArgumentException("Illegal block size: " + blockSize + "/" + subBlockSize);
+		}
+		this.delegate = out;
+		this.subBlockSize = Math.min(subBlockSize, blockSize);
+		this.buffer = new byte[blockSize];
+		this.cbuffer = new Buffer(SnappyCompressor.maxCompressedLength(this.subBlockSize));
+	}
+
+	/**
+	 * Writes the byte to the compressed output stream.
+	 */
+	@Override
+	public void write(int data) throws IOException {
+		tmpBuffer[0] = (byte) data;
+		write(tmpBuffer, 0, 1);
+	}
+
+	/**
+	 * Writes <code>length</code> bytes of data to the compressed stream
+	 * from <code>data</code>, starting at index <code>offset</code>.
+	 */
+	@Override
+	public void write(byte[] data, int offset, int length) throws IOException {
+
+		if(closed) {
+			throw new IllegalStateException("Stream is closed");
+		}
+
+		while(length > 0) {
+			int l = Math.min(length, buffer.length - bufferIndex);
+			System.arraycopy(data, offset, buffer, bufferIndex, l);
+			bufferIndex += l;
+			offset += l;
+			length -= l;
+			if(bufferIndex == buffer.length) {
+				flushBuffer();
+			}
+		}
+	}
+
+	/**
+	 * Returns the compression effort used by this stream.
+	 * @return
+	 */
+	public int getCompressionEffort() {
+		return effort;
+	}
+
+	/**
+	 * Sets the compression effort used by this stream from 1 (fastest, less
+	 * compression) to 100 (slowest, best compression), which takes effect on
+	 * the next block.
+	 * @param effort
+	 */
+	public void setCompressionEffort(int effort) {
+		this.effort = effort;
+	}
+
+	/**
+	 * Writes the buffered data as a block and flushes the underlying stream.
+	 */
+	@Override
+	public void flush() throws IOException {
+		if(closed) {
+			throw new IllegalStateException("Stream is closed");
+		}
+		flushBuffer();
+		delegate.flush();
+	}
+
+	private void flushBuffer() throws IOException {
+		if(bufferIndex > 0) {
+			if(context == null || context.getEffort() != effort) {
+				context = SnappyCompressor.newContext(effort);
+			}
+			writeInt(bufferIndex);
+			for(int o = 0; o < bufferIndex; o += subBlockSize) {
+				context.compress(buffer, o, Math.min(subBlockSize, bufferIndex - o), cbuffer);
+				writeInt(cbuffer.getLength());
+				delegate.write(cbuffer.getData(), 0, cbuffer.getLength());
+			}
+			bufferIndex = 0;
+		}
+	}
+
+	private void writeInt(int value) throws IOException {
+		header[0] = (byte) (value >> 24);
+		header[1] = (byte) (value >> 16);
+		header[2] = (byte) (value >> 8);
+		header[3] = (byte) value;
+		delegate.write(header, 0, 4);
+	}
+
+	/**
+	 * Writes the buffered data as a block and closes the underlying stream.
+	 */
+	@Override
+	public void close() throws IOException {
+		if(closed) {
+			return;
+		}
+		flushBuffer();
+		delegate.close();
+		closed = true;
+	}
+
+}
@@ -0,0 +1,165 @@
+package de.jarnbjo.jsnappy;
+
+/**
+ * Compressor choosing the token sequence with the smallest encoded size
+ * instead of taking matches greedily. All matches available at each
+ * position are collected through the hash chains of ChainBasedCompressor
+ * and a shortest path through the input is computed, using the sizes of
+ * the Snappy literal and copy tokens as costs.
+ */
+class OptimalParsingCompressor extends ChainBasedCompressor {
+
+	private static final int INFINITE = Integer.MAX_VALUE;
+
+	// Indexed by position relative to the start of the fragment. Grown
+	// when required and reused between invocations.
+	private int[] price = new int[0];
+	private int[] literalRun = new int[0];
+	private int[] copyLength = new int[0];
+	private int[] copyOffset = new int[0];
+
+	private final int[] offsets = new int[65];
+
+	OptimalParsingCompressor(int maxChainDepth, int goodLength) {
+		super(maxChainDepth, goodLength, 0);
+	}
+
+	int compressFragment(byte[] in, int start, int offset, int length, byte[] target, int targetIndex) {
+
+		if(price.length < length + 1) {
+			price = new int[length + 1];
+			literalRun = new int[length + 1];
+			copyLength = new int[length + 1];
+			copyOffset = new int[length + 1];
+		}
+
+		int bias = prepareTables(start, offset, length);
+		int end = offset + length;
+		int limit = end - 4;
+		int word = offset < limit ? toInt(in, offset) : 0;
+
+		price[0] = 0;
+		literalRun[0] = 0;
+		for(int p = 1; p <= length; p++) {
+			price[p] = INFINITE;
+		}
+
+		// positions inside a match of at least the good enough length are
+		// not searched, which keeps highly redundant input from being
+		// searched at every position with the full chain depth
+		int searchFrom = 0;
+
+		for(int p = 0; p < length; p++) {
+			int i = offset + p;
+			int c = price[p];
+
+			int lc = c + 1 + literalTagIncrement(literalRun[p]);
+			if(lc < price[p+1]) {
+				price[p+1] = lc;
+				literalRun[p+1] = literalRun[p] + 1;
+				copyLength[p+1] = 0;
+			}
+
+			if(i < limit) {
+				int max = p < searchFrom ? 0 : findMatches(in, i, word, start, end, bias, offsets);
+				for(int l = 4; l <= max; l++) {
+					relaxCopy(p, l, offsets[l], c);
+				}
+				if(max == 64) {
+					// the longest match is not limited to 64 bytes
+					int o = offsets[64];
+					int l = 64 + BYTES.matchLength(in, i - o + 64, i + 64, end - i - 64);
+					if(l > 64) {
+						relaxCopy(p, l, o, c);
+						max = l;
+					}
+				}
+				if(max >= goodLength) {
+					searchFrom = p + max;
+				}
+				insert(word, i + bias);
+				word = (word << 8) | (in[i+4] & 0xff);
+			}
+		}
+
+		// walk back from the end and link each position on the cheapest
+		// path to its successor, reusing the price array
+		int p = length;
+		while(p > 0) {
+			int step = copyLength[p] > 0 ? copyLength[p] : 1;
+			price[p - step] = p;
+			p -= step;
+		}
+
+		int lasthit = 0;
+		p = 0;
+		while(p < length) {
+			int next = price[p];
+			if(copyLength[next] > 0 && next - p == copyLength[next]) {
+				if(lasthit < p) {
+					targetIndex = writeLiteral(in, offset + lasthit, p - lasthit, target, targetIndex);
+				}
+				targetIndex = writeCopy(copyOffset[next], copyLength[next], target, targetIndex);
+				lasthit = next;
+			}
+			p = next;
+		}
+		if(lasthit < length) {
+			targetIndex = writeLiteral(in, offset + lasthit, length - lasthit, target, targetIndex);
+		}
+
+		return targetIndex;
+	}
+
+	private void relaxCopy(int p, int length, int offset, int price0) {
+		int mc = price0 + copyCost(length, offset);
+		if(mc < price[p+length]) {
+			price[p+length] = mc;
+			literalRun[p+length] = 0;
+			copyLength[p+length] = length;
+			copyOffset[p+length] = offset;
+		}
+	}
+
+	// Additional tag bytes required for appending a literal to a run
+	// of literals with the given length.
+	private static int literalTagIncrement(int run) {
+		switch(run) {
+		case 0:
+		case 60:
+		case 0x100:
+		case 0x10000:
+		case 0x1000000:
+			return 1;
+		default:
+			return 0;
+		}
+	}
+
+	// Size of the tokens written by writeCopy.
+	private static int copyCost(int length, int offset) {
+		int cost = 0;
+		while(length >= 68) {
+			cost += copyTokenCost(64, offset);
+			length -= 64;
+		}
+		if(length > 64) {
+			cost += copyTokenCost(60, offset);
+			length -= 60;
+		}
+		return cost + copyTokenCost(length, offset);
+	}
+
+	private static int copyTokenCost(int length, int offset) {
+		if(length <= 11 && offset < 2048) {
+			return 2;
+		}
+		else if(offset < 65536) {
+			return 3;
+		}
+		else {
+			return 5;
+		}
+	}
+
+}
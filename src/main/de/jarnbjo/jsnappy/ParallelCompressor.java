@@ -0,0 +1,106 @@
+/*
+ *  Copyright 2011 Tor-Einar Jarnbjo
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package de.jarnbjo.jsnappy;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Compresses large inputs into a single block on several threads. The input
+ * is split into chunks of whole fragments, which are compressed independently,
+ * each with its own context. Every chunk writes its tokens into a region of
+ * the output array large enough for its worst case, and the regions are moved
+ * together behind the length preamble afterwards, so that no intermediate
+ * arrays are required.
+ */
+class ParallelCompressor {
+
+	// Minimum number of bytes per chunk. Smaller inputs are compressed by the
+	// calling thread.
+	static final int MIN_CHUNK_SIZE = 1 << 18;
+
+	// Number of chunks per thread of the pool, so that threads finishing early
+	// can take over work from slower ones.
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	private ParallelCompressor() {
+	}
+
+	static Buffer compress(final byte[] in, int offset, int length, Buffer out, final int effort, ForkJoinPool pool) {
+
+		int chunks = Math.min(length / MIN_CHUNK_SIZE, pool.getParallelism() * CHUNKS_PER_THREAD);
+		if(chunks < 2) {
+			return SnappyCompressor.compress(in, offset, length, out, effort);
+		}
+
+		// the chunk size is rounded up to whole fragments, which may
+		// reduce the number of chunks
+		int chunkSize = ((length - 1) / chunks / AbstractCompressor.FRAGMENT_SIZE + 1) * AbstractCompressor.FRAGMENT_SIZE;
+		chunks = (length - 1) / chunkSize + 1;
+
+		int preambleLength = AbstractCompressor.writeLength(length, new byte[5], 0);
+		final int[] regions = new int[chunks];
+		final int[] ends = new int[chunks];
+		int capacity = preambleLength;
+		for(int i = 0; i < chunks; i++) {
+			regions[i] = capacity;
+			capacity += SnappyCompressor.maxCompressedLength(Math.min(chunkSize, length - i * chunkSize));
+		}
+
+		if(out == null) {
+			out = new Buffer(capacity);
+		}
+		else {
+			out.ensureCapacity(capacity);
+		}
+		final byte[] target = out.getData();
+		AbstractCompressor.writeLength(length, target, 0);
+
+		final RecursiveAction[] tasks = new RecursiveAction[chunks];
+		for(int i = 0; i < chunks; i++) {
+			final int chunk = i;
+			final int chunkOffset = offset + i * chunkSize;
+			final int chunkLength = Math.min(chunkSize, length - i * chunkSize);
+			tasks[i] = new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+				@Override
+				protected void compute() {
+					AbstractCompressor compressor = SnappyCompressor.newContext(effort).compressor;
+					ends[chunk] = compressor.compressTokens(in, chunkOffset, chunkLength, target, regions[chunk]);
+				}
+			};
+		}
+		pool.invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		});
+
+		int targetIndex = ends[0];
+		for(int i = 1; i < chunks; i++) {
+			int l = ends[i] - regions[i];
+			System.arraycopy(target, regions[i], target, targetIndex, l);
+			targetIndex += l;
+		}
+
+		out.setLength(targetIndex);
+		return out;
+	}
+
+}
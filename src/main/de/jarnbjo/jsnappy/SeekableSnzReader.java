@@ -0,0 +1,303 @@
+/*
+ *  Copyright 2011 Tor-Einar Jarnbjo
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package de.jarnbjo.jsnappy;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import static de.jarnbjo.jsnappy.SnzOutputStream.HEADER_LENGTH;
+import static de.jarnbjo.jsnappy.SnzOutputStream.INDEX_FOOTER_LENGTH;
+import static de.jarnbjo.jsnappy.SnzOutputStream.INDEX_MAGIC;
+
+/**
+ * <p>
+ * This class provides random access to the uncompressed content of an SNZ file
+ * with a block index, as written by <code>SnzOutputStream</code> if
+ * <code>setIndexed(true)</code> has been called.
+ * </p>
+ *
+ * <p>
+ * Only the blocks containing the requested data are read and decompressed. The
+ * most recently decompressed block is kept, so that sequential reads decompress
+ * each block once. Instances of this class are not thread-safe.
+ * </p>
+ *
+ * @author Tor-Einar Jarnbjo
+ * @since 1.1
+ */
+public class SeekableSnzReader implements Closeable {
+
+	private static final int INDEX_CHUNK_ENTRIES = 4096;
+
+	private final FileChannel channel;
+
+	private final int blockSize;
+	private final int version;
+	private final long size;
+
+	// uncompressed and compressed block offsets, the last entry
+	// holding the uncompressed length and end-of-stream marker
+	private final long[] uncompressedOffsets;
+	private final long[] compressedOffsets;
+
+	private long position = 0;
+
+	private final Buffer cbuffer;
+	private final Buffer dbuffer;
+	private int currentBlock = -1;
+
+	// the block header is parsed from cbuffer up to headerEnd
+	private int headerIndex, headerEnd;
+	private final SnzBlockHeader blockHeader;
+
+	/**
+	 * Creates a new reader for the SNZ file opened as <code>channel</code>.
+	 * @param channel
+	 * @throws FormatViolationException if the file is invalid or has no block index
+	 * @throws IOException
+	 */
+	public SeekableSnzReader(FileChannel channel) throws IOException {
+
+		this.channel = channel;
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+		readFully(header, 0);
+		if(header.get(0) != 'S' || header.get(1) != 'N' || header.get(2) != 'Z') {
+			throw new FormatViolationException("Illegal prefix in SNZ stream");
+		}
+		version = header.get(3) & 0xff;
+		if(version != 1 && version != 2) {
+			throw new FormatViolationException("Illegal SNZ version: " + version + " (only 1 and 2 are supported)", 1);
+		}
+		int blockSize2 = header.get(4) & 0xff;
+		if(blockSize2 > 29) {
+			throw new FormatViolationException("Illegal SNZ block size: 2**" + blockSize2, 4);
+		}
+		blockSize = 1 << blockSize2;
+
+		long fileSize = channel.size();
+		if(fileSize < HEADER_LENGTH + 1 + INDEX_FOOTER_LENGTH) {
+			throw new FormatViolationException("SNZ file has no block index");
+		}
+		ByteBuffer footer = ByteBuffer.allocate(INDEX_FOOTER_LENGTH);
+		readFully(footer, fileSize - INDEX_FOOTER_LENGTH);
+		size = footer.getLong(0);
+		int count = footer.getInt(8);
+		if(footer.getInt(12) != INDEX_MAGIC) {
+			throw new FormatViolationException("SNZ file has no block index");
+		}
+		// every block takes at least two bytes, so the count is checked
+		// against the file size before the offset arrays are allocated
+		if(count < 0 || 16L * count > Integer.MAX_VALUE - 16 || count > (fileSize - HEADER_LENGTH) / 2) {
+			throw new FormatViolationException("Illegal block index");
+		}
+		long indexStart = fileSize - INDEX_FOOTER_LENGTH - 16L * count;
+		if(size < 0 || indexStart < HEADER_LENGTH + 1) {
+			throw new FormatViolationException("Illegal block index");
+		}
+
+		uncompressedOffsets = new long[count + 1];
+		compressedOffsets = new long[count + 1];
+		// the index is read in chunks of INDEX_CHUNK_ENTRIES entries
+		ByteBuffer index = ByteBuffer.allocate(16 * Math.min(count, INDEX_CHUNK_ENTRIES));
+		for(int i = 0; i < count; i += INDEX_CHUNK_ENTRIES) {
+			int n = Math.min(count - i, INDEX_CHUNK_ENTRIES);
+			((java.nio.Buffer) index).clear().limit(16 * n);
+			readFully(index, indexStart + 16L * i);
+			for(int k = 0; k < n; k++) {
+				uncompressedOffsets[i + k] = index.getLong(16 * k);
+				compressedOffsets[i + k] = index.getLong(16 * k + 8);
+			}
+		}
+		uncompressedOffsets[count] = size;
+		compressedOffsets[count] = indexStart - 1;
+
+		// the first block follows the header, and the offsets must increase
+		// by no more than the maximum block lengths, which in version 2
+		// include the flags, the uncompressed length and optional fields
+		int maxBlockLength = 5 + SnappyCompressor.maxCompressedLength(blockSize);
+		if(version == 2) {
+			maxBlockLength += 11 + SnzOutputStream.MAX_OPTIONAL_FIELDS_LENGTH;
+		}
+		if(uncompressedOffsets[0] != 0 || compressedOffsets[0] != HEADER_LENGTH) {
+			throw new FormatViolationException("Illegal block index");
+		}
+		for(int i = 1; i <= count; i++) {
+			long u = uncompressedOffsets[i] - uncompressedOffsets[i - 1];
+			long c = compressedOffsets[i] - compressedOffsets[i - 1];
+			if(u <= 0 || u > blockSize || c <= 0 || c > maxBlockLength) {
+				throw new FormatViolationException("Illegal block index");
+			}
+		}
+
+		cbuffer = new Buffer(5 + SnappyCompressor.maxCompressedLength(blockSize));
+		dbuffer = new Buffer(blockSize);
+		blockHeader = new SnzBlockHeader(() -> {
+			if(headerIndex == headerEnd) {
+				throw new FormatViolationException("Illegal block header");
+			}
+			return cbuffer.getData()[headerIndex++] & 0xff;
+		});
+	}
+
+	/**
+	 * Returns the block size of the SNZ file.
+	 * @return
+	 */
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * Returns the uncompressed length of the SNZ file.
+	 * @return
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Returns the uncompressed position, from which <code>read(ByteBuffer)</code> reads.
+	 * @return
+	 */
+	public long position() {
+		return position;
+	}
+
+	/**
+	 * Sets the uncompressed position, from which <code>read(ByteBuffer)</code> reads.
+	 * Setting the position beyond the uncompressed length is legal, but subsequent
+	 * reads will return -1.
+	 * @param position
+	 * @throws IllegalArgumentException if the position is negative
+	 */
+	public void seek(long position) {
+		if(position < 0) {
+			throw new IllegalArgumentException("Negative position: " + position);
+		}
+		this.position = position;
+	}
+
+	/**
+	 * Reads uncompressed data from the current position into <code>dst</code> and
+	 * advances the position by the number of bytes read.
+	 * @param dst
+	 * @return the number of bytes read or -1 if the position is at or beyond the end
+	 * @throws FormatViolationException if the compressed data is invalid
+	 * @throws IOException
+	 */
+	public int read(ByteBuffer dst) throws IOException {
+		int n = read(position, dst);
+		if(n > 0) {
+			position += n;
+		}
+		return n;
+	}
+
+	/**
+	 * Reads uncompressed data from <code>position</code> into <code>dst</code>, until
+	 * <code>dst</code> is full or the end is reached. The current position is not changed.
+	 * @param position
+	 * @param dst
+	 * @return the number of bytes read or -1 if <code>position</code> is at or beyond the end
+	 * @throws FormatViolationException if the compressed data is invalid
+	 * @throws IOException
+	 */
+	public int read(long position, ByteBuffer dst) throws IOException {
+
+		if(position < 0) {
+			throw new IllegalArgumentException("Negative position: " + position);
+		}
+		if(position >= size) {
+			return -1;
+		}
+
+		int read = 0;
+		while(dst.hasRemaining() && position < size) {
+			int block = Arrays.binarySearch(uncompressedOffsets, position);
+			if(block < 0) {
+				block = -block - 2;
+			}
+			loadBlock(block);
+			int offset = (int) (position - uncompressedOffsets[block]);
+			int l = Math.min(dst.remaining(), dbuffer.getLength() - offset);
+			dst.put(dbuffer.getData(), offset, l);
+			position += l;
+			read += l;
+		}
+
+		return read;
+	}
+
+	/**
+	 * Closes the underlying channel.
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	// Reads and decompresses the block into dbuffer, unless it is already there.
+	private void loadBlock(int block) throws IOException {
+
+		if(block == currentBlock) {
+			return;
+		}
+		currentBlock = -1;
+
+		int length = (int) (compressedOffsets[block + 1] - compressedOffsets[block]);
+		cbuffer.ensureCapacity(length);
+		byte[] c = cbuffer.getData();
+		readFully(ByteBuffer.wrap(c, 0, length), compressedOffsets[block]);
+
+		// the block header is followed by exactly the compressed data
+		headerIndex = 0;
+		headerEnd = length;
+		int cLength = blockHeader.read(version, blockSize);
+		if(cLength != length - headerIndex) {
+			throw new FormatViolationException("Block length does not match the block index: " + cLength);
+		}
+
+		if(blockHeader.isStored()) {
+			System.arraycopy(c, headerIndex, dbuffer.getData(), 0, cLength);
+			dbuffer.setLength(cLength);
+		}
+		else {
+			SnappyDecompressor.decompress(c, headerIndex, cLength, dbuffer);
+			SnzBlockHeader.checkUncompressedLength(dbuffer.getLength(), blockHeader.uncompressedLength);
+		}
+		if(dbuffer.getLength() != uncompressedOffsets[block + 1] - uncompressedOffsets[block]) {
+			throw new FormatViolationException("Uncompressed block length does not match the block index");
+		}
+		currentBlock = block;
+	}
+
+	private void readFully(ByteBuffer dst, long position) throws IOException {
+		while(dst.hasRemaining()) {
+			int r = channel.read(dst, position);
+			if(r < 0) {
+				throw new EOFException();
+			}
+			position += r;
+		}
+	}
+
+}
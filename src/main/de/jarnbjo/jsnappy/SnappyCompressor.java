@@ -16,6 +16,10 @@
 
 package de.jarnbjo.jsnappy;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * This class provide utility methods for compressing 
  * data blocks using the Snappy algorithm.
@@ -105,6 +109,7 @@ public class SnappyCompressor {
 	 * 
 	 * <p>
 	 * The compression effort can be set from 1 (fastest, less compression) to 100 (slowest, highest compression).
+	 * See {@link CompressionContext} for the effect of the different effort values.
 	 * </p>
 	 * 
 	 * @param in input data
@@ -115,20 +120,111 @@ public class SnappyCompressor {
 	 * @return
 	 */
 	public static Buffer compress(byte[] in, int offset, int length, Buffer out, int effort) {
+		return newContext(effort).compress(in, offset, length, out);
+	}
+
+	/**
+	 * Equivalent to <code>compressParallel(in, offset, length, out, effort, ForkJoinPool.commonPool())</code>.
+	 * @param in input data
+	 * @param offset offset into input data
+	 * @param length length of input data
+	 * @param out output buffer or null (new buffer will be allocated)
+	 * @param effort compression effort
+	 * @return reference to <code>out</code>
+	 * @since 1.1
+	 */
+	public static Buffer compressParallel(byte[] in, int offset, int length, Buffer out, int effort) {
+		return compressParallel(in, offset, length, out, effort, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * <p>
+	 * Compress the data contained in <code>in</code> from <code>offset</code> and
+	 * <code>length</code> bytes like <code>compress</code>, but using the threads of
+	 * <code>pool</code>. The input is split into chunks of at least 256 KB, which are
+	 * compressed in parallel, and the result is a single compressed data block, which
+	 * can be decompressed by any Snappy implementation. Inputs shorter than 512 KB
+	 * are compressed by the calling thread.
+	 * </p>
+	 *
+	 * <p>
+	 * Since matches are only searched within each chunk, the result may be slightly
+	 * larger than the result of <code>compress</code>. The output buffer needs room
+	 * for the worst case of every chunk, i.e. 32 bytes more per chunk than
+	 * <code>maxCompressedLength(length)</code>.
+	 * </p>
+	 *
+	 * @param in input data
+	 * @param offset offset into input data
+	 * @param length length of input data
+	 * @param out output buffer or null (new buffer will be allocated)
+	 * @param effort compression effort
+	 * @param pool pool executing the compression of the chunks
+	 * @return reference to <code>out</code>
+	 * @since 1.1
+	 */
+	public static Buffer compressParallel(byte[] in, int offset, int length, Buffer out, int effort, ForkJoinPool pool) {
+		return ParallelCompressor.compress(in, offset, length, out, effort, pool);
+	}
 
-		if(effort < 1 || effort > 100) {
-			throw new IllegalArgumentException("Compression effort must be an integer from 0 (fastest, less compression) to 100 (slowest, highest compression)");
-		}
-		
-		if(effort < 30) {
-			return TableBasedCompressor.compress(in, offset, length, out);
-		}
-		else if(effort < 70) {
-			return MapBasedCompressor.compress(in, offset, length, out, true);
-		}
-		else {
-			return MapBasedCompressor.compress(in, offset, length, out, false);
-		}
+	/**
+	 * Equivalent to <code>compress(in, out, DEFAULT_EFFORT)</code>.
+	 * @param in input data
+	 * @param out output buffer
+	 * @return number of bytes written to <code>out</code>
+	 * @throws BufferOverflowException if <code>out</code> has too few bytes remaining
+	 * @since 1.1
+	 */
+	public static int compress(ByteBuffer in, ByteBuffer out) throws BufferOverflowException {
+		return compress(in, out, DEFAULT_EFFORT);
+	}
+
+	/**
+	 * Compress the remaining bytes of <code>in</code> into <code>out</code> with the
+	 * specified effort. See {@link CompressionContext#compress(ByteBuffer, ByteBuffer)}.
+	 * @param in input data
+	 * @param out output buffer with at least <code>maxCompressedLength(in.remaining())</code>
+	 *   bytes remaining
+	 * @param effort compression effort
+	 * @return number of bytes written to <code>out</code>
+	 * @throws BufferOverflowException if <code>out</code> has too few bytes remaining
+	 * @since 1.1
+	 */
+	public static int compress(ByteBuffer in, ByteBuffer out, int effort) throws BufferOverflowException {
+		return newContext(effort).compress(in, out);
+	}
+
+	/**
+	 * Returns the maximum size of the compressed data block for an input of
+	 * <code>length</code> bytes, which is the same bound as for the reference
+	 * implementation.
+	 * @param length length of input data
+	 * @return maximum length of the compressed data block
+	 * @since 1.1
+	 */
+	public static int maxCompressedLength(int length) {
+		// copy offsets are limited to 64 KB, so that no copy token is
+		// longer than the data it replaces
+		return 32 + length + length / 6;
+	}
+
+	/**
+	 * <p>
+	 * Creates a reusable compression context with the specified effort. The context
+	 * keeps its internal match tables between invocations and should be preferred
+	 * to the static <code>compress</code> methods if many blocks are compressed.
+	 * </p>
+	 *
+	 * <p>
+	 * The compression effort can be set from 1 (fastest, less compression) to 100 (slowest, highest compression).
+	 * </p>
+	 *
+	 * @param effort compression effort
+	 * @return a new compression context
+	 * @since 1.1
+	 */
+	public static CompressionContext newContext(int effort) {
+		return new CompressionContext(effort);
 	}
 
 }
@@ -16,6 +16,10 @@
 
 package de.jarnbjo.jsnappy;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ReadOnlyBufferException;
 import java.util.Arrays;
 
 /**
@@ -27,6 +31,10 @@ import java.util.Arrays;
  */
 public class SnappyDecompressor {
 
+	// Maximum number of bytes a single byte of a compressed block can expand
+	// to. The longest copy of 64 bytes is encoded in 3 bytes.
+	private static final int MAX_EXPANSION = 22;
+
 	private SnappyDecompressor() {		
 	}
 	
@@ -94,14 +102,14 @@ public class SnappyDecompressor {
 	 */
 	public static Buffer decompress(byte[] in, int offset, int length, Buffer out) throws FormatViolationException {
 
-		int i=0, l, o, c;
-		int sourceIndex = offset, targetIndex = 0;
-		int targetLength = 0;
+		if(offset < 0 || length < 0 || length > in.length - offset) {
+			throw new IndexOutOfBoundsException();
+		}
 
-		i = 0;
-		do {
-			targetLength += (in[sourceIndex] & 0x7f) << (i++ * 7);
-		} while ((in[sourceIndex++] & 0x80) == 0x80);
+		int targetLength = readLength(in, offset, offset + length);
+		int sourceIndex = offset;
+		while((in[sourceIndex++] & 0x80) != 0) {
+		}
 
 		if (out == null) {
 			out = new Buffer(targetLength);
@@ -111,14 +119,176 @@ public class SnappyDecompressor {
 		}
 
 		out.setLength(targetLength);
-		byte[] outBuffer = out.getData();
+		decode(in, sourceIndex, offset + length, out.getData(), 0, targetLength);
 
-		while(sourceIndex < offset + length) {
-			
-			if(targetIndex >= targetLength) {
-				throw new FormatViolationException("Superfluous input data encountered on offset " + sourceIndex, sourceIndex);
+		return out;
+	}
+
+	/**
+	 * Decompress the data contained in <code>in</code> from <code>offset</code>
+	 * and <code>length</code> bytes into <code>out</code>, starting at index
+	 * <code>outOffset</code>.
+	 * @param in
+	 * @param offset
+	 * @param length
+	 * @param out array with room for at least <code>getDecompressedLength(in, offset, length)</code>
+	 *   bytes from <code>outOffset</code>
+	 * @param outOffset
+	 * @return length of the decompressed data block
+	 * @throws FormatViolationException if the input data is invalid
+	 * @throws IndexOutOfBoundsException if <code>out</code> is too small
+	 * @since 1.1
+	 */
+	public static int decompress(byte[] in, int offset, int length, byte[] out, int outOffset) throws FormatViolationException {
+
+		int targetLength = getDecompressedLength(in, offset, length);
+		if(outOffset < 0 || targetLength > out.length - outOffset) {
+			throw new IndexOutOfBoundsException();
+		}
+
+		int sourceIndex = offset;
+		while((in[sourceIndex++] & 0x80) != 0) {
+		}
+		decode(in, sourceIndex, offset + length, out, outOffset, outOffset + targetLength);
+
+		return targetLength;
+	}
+
+	/**
+	 * Returns the length of the decompressed data block from the header of the
+	 * compressed block at the position of <code>in</code>, without changing the
+	 * position.
+	 * @param in compressed data block
+	 * @return length of the decompressed data block
+	 * @throws FormatViolationException if the header is invalid
+	 * @since 1.1
+	 */
+	public static int getDecompressedLength(ByteBuffer in) throws FormatViolationException {
+		long targetLength = 0;
+		int index = in.position();
+		for(int shift = 0; ; shift += 7) {
+			if(index >= in.limit() || shift > 28) {
+				throw new FormatViolationException("Invalid length on offset " + in.position(), in.position());
+			}
+			int b = in.get(index++);
+			targetLength |= (long) (b & 0x7f) << shift;
+			if((b & 0x80) == 0) {
+				break;
+			}
+		}
+		checkLength(targetLength, in.limit() - index, in.position());
+		return (int) targetLength;
+	}
+
+	/**
+	 * Returns the length of the decompressed data block from the header of the
+	 * compressed block in <code>in</code>, starting at index <code>offset</code>.
+	 * This can be used to acquire an output buffer of the required size, e.g. from
+	 * a <code>BufferPool</code>.
+	 * @param in
+	 * @param offset
+	 * @param length
+	 * @return length of the decompressed data block
+	 * @throws FormatViolationException if the header is invalid
+	 * @since 1.1
+	 */
+	public static int getDecompressedLength(byte[] in, int offset, int length) throws FormatViolationException {
+		if(offset < 0 || length < 0 || length > in.length - offset) {
+			throw new IndexOutOfBoundsException();
+		}
+		return readLength(in, offset, offset + length);
+	}
+
+	// Reads the length preamble at offset, which is followed by the compressed
+	// data up to end.
+	private static int readLength(byte[] in, int offset, int end) throws FormatViolationException {
+		long targetLength = 0;
+		int index = offset;
+		for(int shift = 0; ; shift += 7) {
+			if(index >= end || shift > 28) {
+				throw new FormatViolationException("Invalid length on offset " + offset, offset);
+			}
+			int b = in[index++];
+			targetLength |= (long) (b & 0x7f) << shift;
+			if((b & 0x80) == 0) {
+				break;
 			}
-			
+		}
+		checkLength(targetLength, end - index, offset);
+		return (int) targetLength;
+	}
+
+	// Rejects lengths, which cannot be reached with the remaining input, so
+	// that a corrupt preamble does not cause a huge allocation.
+	private static void checkLength(long targetLength, int remaining, int offset) throws FormatViolationException {
+		if(targetLength > Integer.MAX_VALUE || targetLength > (long) remaining * MAX_EXPANSION) {
+			throw new FormatViolationException("Invalid length on offset " + offset, offset);
+		}
+	}
+
+	/**
+	 * Decompress the remaining bytes of <code>in</code>, from its position to its limit,
+	 * into <code>out</code>, starting at the position of <code>out</code>. The positions
+	 * of both buffers are advanced past the data read and written. Heap and direct
+	 * buffers are supported, if both buffers have backing arrays, these are used directly.
+	 * @param in compressed data block
+	 * @param out output buffer with at least <code>getDecompressedLength(in)</code> bytes remaining
+	 * @return number of bytes written to <code>out</code>
+	 * @throws FormatViolationException if the input data is invalid
+	 * @throws BufferOverflowException if <code>out</code> has too few bytes remaining
+	 * @since 1.1
+	 */
+	public static int decompress(ByteBuffer in, ByteBuffer out) throws FormatViolationException, BufferOverflowException {
+
+		if(out.isReadOnly()) {
+			throw new ReadOnlyBufferException();
+		}
+
+		int targetLength = getDecompressedLength(in);
+		if(out.remaining() < targetLength) {
+			throw new BufferOverflowException();
+		}
+
+		int sourceIndex = in.position();
+		while((in.get(sourceIndex++) & 0x80) != 0) {
+		}
+		int targetIndex = out.position();
+
+		if(in.hasArray() && out.hasArray()) {
+			int sourceShift = in.arrayOffset();
+			int targetShift = out.arrayOffset();
+			decode(in.array(), sourceShift + sourceIndex, sourceShift + in.limit(), out.array(), targetShift + targetIndex, targetShift + targetIndex + targetLength);
+		}
+		else {
+			// the byte order only matters for copying eight bytes at a
+			// time, where it must be the same for both buffers
+			decode(in.duplicate().order(ByteOrder.nativeOrder()), sourceIndex, in.limit(),
+					out.duplicate().order(ByteOrder.nativeOrder()), targetIndex, targetIndex + targetLength);
+		}
+
+		// the casts are required for running on Java 8, where ByteBuffer
+		// does not override position(int)
+		((java.nio.Buffer) in).position(in.limit());
+		((java.nio.Buffer) out).position(targetIndex + targetLength);
+		return targetLength;
+	}
+
+	private static void decode(byte[] in, int sourceIndex, int sourceEnd, byte[] outBuffer, int targetStart, int targetEnd) throws FormatViolationException {
+
+		int l, o, c;
+		int targetIndex = targetStart;
+
+		while(sourceIndex < sourceEnd) {
+
+			int tag = sourceIndex;
+
+			// no more than four bytes follow the tag byte before the literal
+			// data, so only the last tokens have to be checked for being
+			// truncated, the other checks are made when the lengths are known
+			if(sourceEnd - sourceIndex <= 4 && sourceEnd - sourceIndex <= headerLength(in[sourceIndex])) {
+				throw new FormatViolationException("Truncated token on offset " + tag, tag);
+			}
+
 			switch(in[sourceIndex] & 3) {
 			case 0:
 				l = (in[sourceIndex++] >> 2) & 0x3f;
@@ -149,79 +319,186 @@ public class SnappyDecompressor {
 					l++;
 					break;
 				}
+				if(l <= 0 || l > targetEnd - targetIndex || l > sourceEnd - sourceIndex) {
+					throw invalidToken("literal", tag, targetIndex, targetEnd);
+				}
 				System.arraycopy(in, sourceIndex, outBuffer, targetIndex, l);
 				sourceIndex += l;
 				targetIndex += l;
-				break;
+				continue;
 			case 1:
 				l = 4 + ((in[sourceIndex] >> 2) & 7);
 				o = (in[sourceIndex++] & 0xe0) << 3;
 				o |= in[sourceIndex++] & 0xff;
-				if(l < o) {
-					System.arraycopy(outBuffer, targetIndex - o, outBuffer, targetIndex, l);
-					targetIndex += l;
-				}
-				else {
-					if(o == 1) {
-						Arrays.fill(outBuffer, targetIndex, targetIndex + l, outBuffer[targetIndex-1]);
-						targetIndex += l;
-					}
-					else {
-						while(l > 0) {
-							c = l > o ? o : l;
-							System.arraycopy(outBuffer, targetIndex - o, outBuffer, targetIndex, c);
-							targetIndex += c;
-							l -= c;
-						}
-					}
-				}
 				break;
 			case 2:
 				l = ((in[sourceIndex++] >> 2) & 0x3f) + 1;
 				o = in[sourceIndex++] & 0xff;
 				o |= (in[sourceIndex++] & 0xff) << 8;
-				if(l < o) {
-					System.arraycopy(outBuffer, targetIndex - o, outBuffer, targetIndex, l);
-					targetIndex += l;
-				}
-				else {
-					while(l > 0) {
-						c = l > o ? o : l;
-						System.arraycopy(outBuffer, targetIndex - o, outBuffer, targetIndex, c);
-						targetIndex += c;
-						l -= c;
-					}
-				}
 				break;
-			case 3:
+			default:
 				l = ((in[sourceIndex++] >> 2) & 0x3f) + 1;
 				o = in[sourceIndex++] & 0xff;
 				o |= (in[sourceIndex++] & 0xff) << 8;
 				o |= (in[sourceIndex++] & 0xff) << 16;
 				o |= (in[sourceIndex++] & 0xff) << 24;
-				if(l < o) {
-					System.arraycopy(outBuffer, targetIndex - o, outBuffer, targetIndex, l);
-					targetIndex += l;
+				break;
+			}
+
+			if(o <= 0 || o > targetIndex - targetStart || l > targetEnd - targetIndex) {
+				throw invalidToken("copy", tag, targetIndex, targetEnd);
+			}
+			if(l <= o) {
+				System.arraycopy(outBuffer, targetIndex - o, outBuffer, targetIndex, l);
+				targetIndex += l;
+			}
+			else if(o == 1) {
+				Arrays.fill(outBuffer, targetIndex, targetIndex + l, outBuffer[targetIndex-1]);
+				targetIndex += l;
+			}
+			else {
+				// the source stays fixed, so that the distance to the target
+				// and with it the length of each copy doubles, taking log(l/o)
+				// instead of l/o copies
+				int src = targetIndex - o;
+				while(l > 0) {
+					c = Math.min(l, targetIndex - src);
+					System.arraycopy(outBuffer, src, outBuffer, targetIndex, c);
+					targetIndex += c;
+					l -= c;
 				}
-				else {
-					if(o == 1) {
-						Arrays.fill(outBuffer, targetIndex, targetIndex + l, outBuffer[targetIndex-1]);
-						targetIndex += l;
+			}
+		}
+
+		if(targetIndex < targetEnd) {
+			throw new FormatViolationException("Input data ends before the decompressed length is reached on offset " + sourceIndex, sourceIndex);
+		}
+	}
+
+	// Returns the number of bytes following the tag byte of a token
+	// before the literal data.
+	private static int headerLength(int tag) {
+		switch(tag & 3) {
+		case 0:
+			int l = (tag >> 2) & 0x3f;
+			return l < 60 ? 0 : l - 59;
+		case 1:
+			return 1;
+		case 2:
+			return 2;
+		default:
+			return 4;
+		}
+	}
+
+	// Creates the exception for a token exceeding the bounds, which is
+	// superfluous if the output is already complete.
+	private static FormatViolationException invalidToken(String token, int tag, int targetIndex, int targetEnd) {
+		if(targetIndex >= targetEnd) {
+			return new FormatViolationException("Superfluous input data encountered on offset " + tag, tag);
+		}
+		return new FormatViolationException("Invalid " + token + " on offset " + tag, tag);
+	}
+
+	// Same as above with absolute get and put operations, used if one of the
+	// buffers has no accessible backing array.
+	private static void decode(ByteBuffer in, int sourceIndex, int sourceEnd, ByteBuffer out, int targetStart, int targetEnd) throws FormatViolationException {
+
+		int l, o;
+		int targetIndex = targetStart;
+
+		while(sourceIndex < sourceEnd) {
+
+			if(targetIndex >= targetEnd) {
+				throw new FormatViolationException("Superfluous input data encountered on offset " + sourceIndex, sourceIndex);
+			}
+
+			int tag = sourceIndex;
+			int b = in.get(sourceIndex++);
+
+			switch(b & 3) {
+			case 0:
+				l = (b >> 2) & 0x3f;
+				if(l >= 60) {
+					int n = l - 59;
+					if(n > sourceEnd - sourceIndex) {
+						throw new FormatViolationException("Truncated literal length on offset " + tag, tag);
 					}
-					else {
-						while(l > 0) {
-							c = l > o ? o : l;
-							System.arraycopy(outBuffer, targetIndex - o, outBuffer, targetIndex, c);
-							targetIndex += c;
-							l -= c;
-						}
+					l = 0;
+					for(int k = 0; k < n; k++) {
+						l |= (in.get(sourceIndex++) & 0xff) << (k * 8);
 					}
 				}
+				l++;
+				if(l <= 0 || l > targetEnd - targetIndex || l > sourceEnd - sourceIndex) {
+					throw new FormatViolationException("Invalid literal on offset " + tag, tag);
+				}
+				copy(in, sourceIndex, out, targetIndex, l);
+				sourceIndex += l;
+				targetIndex += l;
+				continue;
+			case 1:
+				if(sourceIndex >= sourceEnd) {
+					throw new FormatViolationException("Truncated copy on offset " + tag, tag);
+				}
+				l = 4 + ((b >> 2) & 7);
+				o = ((b & 0xe0) << 3) | (in.get(sourceIndex++) & 0xff);
+				break;
+			case 2:
+				if(2 > sourceEnd - sourceIndex) {
+					throw new FormatViolationException("Truncated copy on offset " + tag, tag);
+				}
+				l = ((b >> 2) & 0x3f) + 1;
+				o = (in.get(sourceIndex++) & 0xff) | ((in.get(sourceIndex++) & 0xff) << 8);
+				break;
+			default:
+				if(4 > sourceEnd - sourceIndex) {
+					throw new FormatViolationException("Truncated copy on offset " + tag, tag);
+				}
+				l = ((b >> 2) & 0x3f) + 1;
+				o = (in.get(sourceIndex++) & 0xff) | ((in.get(sourceIndex++) & 0xff) << 8) |
+					((in.get(sourceIndex++) & 0xff) << 16) | ((in.get(sourceIndex++) & 0xff) << 24);
 				break;
 			}
+
+			if(o <= 0 || o > targetIndex - targetStart || l > targetEnd - targetIndex) {
+				throw new FormatViolationException("Invalid copy on offset " + tag, tag);
+			}
+			if(o < 8) {
+				// the output repeats with a period of o, so after writing
+				// the first bytes one at a time, the same data can be copied
+				// from a multiple of o of at least eight
+				int o2 = o;
+				while(o2 < 8) {
+					o2 += o;
+				}
+				int n = Math.min(l, o2 - o);
+				for(int k = 0; k < n; k++) {
+					out.put(targetIndex + k, out.get(targetIndex + k - o));
+				}
+				targetIndex += n;
+				l -= n;
+				o = o2;
+			}
+			// with an offset of at least eight, every eight bytes read
+			// have been written before
+			copy(out, targetIndex - o, out, targetIndex, l);
+			targetIndex += l;
 		}
 
-		return out;
+		if(targetIndex < targetEnd) {
+			throw new FormatViolationException("Input data ends before the decompressed length is reached on offset " + sourceIndex, sourceIndex);
+		}
+	}
+
+	private static void copy(ByteBuffer src, int srcIndex, ByteBuffer dst, int dstIndex, int length) {
+		int k = 0;
+		for(; k + 8 <= length; k += 8) {
+			dst.putLong(dstIndex + k, src.getLong(srcIndex + k));
+		}
+		for(; k < length; k++) {
+			dst.put(dstIndex + k, src.get(srcIndex + k));
+		}
 	}
 
 }
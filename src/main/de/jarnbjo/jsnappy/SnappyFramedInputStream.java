@@ -0,0 +1,259 @@
+/*
+ *  Copyright 2011 Tor-Einar Jarnbjo
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package de.jarnbjo.jsnappy;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static de.jarnbjo.jsnappy.SnappyFramedOutputStream.COMPRESSED_CHUNK;
+import static de.jarnbjo.jsnappy.SnappyFramedOutputStream.MAX_CHUNK_SIZE;
+import static de.jarnbjo.jsnappy.SnappyFramedOutputStream.STREAM_IDENTIFIER;
+import static de.jarnbjo.jsnappy.SnappyFramedOutputStream.STREAM_IDENTIFIER_CHUNK;
+import static de.jarnbjo.jsnappy.SnappyFramedOutputStream.UNCOMPRESSED_CHUNK;
+
+/**
+ * <p>
+ * This class implements a stream filter for reading compressed data in the Snappy
+ * framing format, as written by <code>SnappyFramedOutputStream</code> and other
+ * Snappy implementations.
+ * </p>
+ *
+ * <p>
+ * The checksums of all chunks are verified. Padding and reserved skippable chunks
+ * are ignored, as are repeated stream identifiers of concatenated streams.
+ * </p>
+ *
+ * @author Tor-Einar Jarnbjo
+ * @since 1.1
+ */
+public class SnappyFramedInputStream extends InputStream {
+
+	private final InputStream delegate;
+
+	private boolean identified = false;
+	private boolean eof = false;
+
+	// skipped chunks are read in parts of this size into cbuffer
+	private static final int SKIP_BUFFER_SIZE = 8192;
+
+	private final byte[] header = new byte[4];
+	private final Buffer cbuffer = new Buffer(SnappyCompressor.maxCompressedLength(MAX_CHUNK_SIZE) + 4);
+
+	private final Buffer dbuffer = new Buffer(MAX_CHUNK_SIZE);
+	private int dbufferIndex = 0;
+
+	private final byte[] tmpBuffer = new byte[1];
+
+	private final Crc32C crc = Crc32C.newInstance();
+
+	/**
+	 * Creates a new SnappyFramedInputStream, reading from the provided InputStream <code>in</code>.
+	 * @param in
+	 */
+	public SnappyFramedInputStream(InputStream in) {
+		this.delegate = in;
+	}
+
+	/**
+	 * Reads a single byte from the uncompressed stream.
+	 * @throws FormatViolationException if the input data is invalid
+	 * @return the read byte or -1 if end of stream is reached
+	 */
+	@Override
+	public int read() throws IOException {
+		return read(tmpBuffer, 0, 1) < 0 ? -1 : tmpBuffer[0] & 0xff;
+	}
+
+	/**
+	 * Fills the byte array with data from the uncompressed stream starting
+	 * at the specified <code>offset</code> and no more than <code>length</code> bytes.
+	 * @param b destination array
+	 * @param offset offset into the byte array, on which the data is written
+	 * @param length maximum number of bytes to write into the byte array
+	 * @throws FormatViolationException if the input data is invalid
+	 * @return the number of bytes read or -1 if end of stream is reached
+	 */
+	@Override
+	public int read(byte[] b, int offset, int length) throws IOException {
+
+		if(eof) {
+			return -1;
+		}
+
+		while(dbufferIndex >= dbuffer.getLength()) {
+			int n = readChunk(b, offset, length);
+			if(n < 0) {
+				eof = true;
+				return -1;
+			}
+			if(n > 0) {
+				return n;
+			}
+		}
+
+		if(length > dbuffer.getLength() - dbufferIndex) {
+			length = dbuffer.getLength() - dbufferIndex;
+		}
+
+		System.arraycopy(dbuffer.getData(), dbufferIndex, b, offset, length);
+		dbufferIndex += length;
+
+		return length;
+	}
+
+	/**
+	 * Returns the number of decompressed bytes, which can be read without
+	 * reading from the underlying stream.
+	 */
+	@Override
+	public int available() throws IOException {
+		return dbuffer.getLength() - dbufferIndex;
+	}
+
+	/**
+	 * Closes the underlying input stream.
+	 */
+	@Override
+	public void close() throws IOException {
+		delegate.close();
+	}
+
+	// Reads the next chunk. Its data is decompressed directly into b if it
+	// fits and the number of bytes is returned, otherwise it is decompressed
+	// into dbuffer and 0 is returned. Returns -1 at the end of the stream.
+	private int readChunk(byte[] b, int offset, int length) throws IOException {
+
+		if(!readHeader()) {
+			return -1;
+		}
+
+		int type = header[0] & 0xff;
+		int chunkLength = (header[1] & 0xff) | ((header[2] & 0xff) << 8) | ((header[3] & 0xff) << 16);
+
+		if(!identified && type != STREAM_IDENTIFIER) {
+			throw new FormatViolationException("Missing stream identifier");
+		}
+
+		// the type and length are checked before the chunk is read, so
+		// that cbuffer never grows beyond its initial capacity
+		byte[] c = cbuffer.getData();
+
+		switch(type) {
+		case STREAM_IDENTIFIER:
+			if(chunkLength != 6) {
+				throw new FormatViolationException("Illegal stream identifier");
+			}
+			readFully(c, chunkLength);
+			for(int i = 0; i < 6; i++) {
+				if(c[i] != STREAM_IDENTIFIER_CHUNK[4 + i]) {
+					throw new FormatViolationException("Illegal stream identifier");
+				}
+			}
+			identified = true;
+			return 0;
+		case COMPRESSED_CHUNK: {
+			if(chunkLength < 4 || chunkLength > 4 + SnappyCompressor.maxCompressedLength(MAX_CHUNK_SIZE)) {
+				throw new FormatViolationException("Illegal chunk length: " + chunkLength);
+			}
+			readFully(c, chunkLength);
+			int dLength = SnappyDecompressor.getDecompressedLength(c, 4, chunkLength - 4);
+			if(dLength > MAX_CHUNK_SIZE) {
+				throw new FormatViolationException("Illegal uncompressed chunk length: " + dLength);
+			}
+			if(dLength <= length) {
+				// the chunk fits, so it is decompressed directly
+				// into the caller's array instead of being copied
+				SnappyDecompressor.decompress(c, 4, chunkLength - 4, b, offset);
+				verify(c, b, offset, dLength);
+				return dLength;
+			}
+			SnappyDecompressor.decompress(c, 4, chunkLength - 4, dbuffer);
+			dbufferIndex = 0;
+			verify(c, dbuffer.getData(), 0, dLength);
+			return 0;
+		}
+		case UNCOMPRESSED_CHUNK: {
+			int dLength = chunkLength - 4;
+			if(dLength < 0 || dLength > MAX_CHUNK_SIZE) {
+				throw new FormatViolationException("Illegal chunk length: " + chunkLength);
+			}
+			readFully(c, chunkLength);
+			verify(c, c, 4, dLength);
+			if(dLength <= length) {
+				System.arraycopy(c, 4, b, offset, dLength);
+				return dLength;
+			}
+			System.arraycopy(c, 4, dbuffer.getData(), 0, dLength);
+			dbuffer.setLength(dLength);
+			dbufferIndex = 0;
+			return 0;
+		}
+		default:
+			// chunk types 0x80 to 0xfe, including padding, are skipped
+			// without being kept in memory
+			if(type < 0x80) {
+				throw new FormatViolationException("Unskippable chunk type: " + type);
+			}
+			for(int n = chunkLength; n > 0; n -= SKIP_BUFFER_SIZE) {
+				readFully(c, Math.min(n, SKIP_BUFFER_SIZE));
+			}
+			return 0;
+		}
+	}
+
+	// Compares the checksum at the start of chunk with the checksum of
+	// the uncompressed data.
+	private void verify(byte[] chunk, byte[] data, int offset, int length) throws FormatViolationException {
+		int expected =
+			(chunk[0] & 0xff) | ((chunk[1] & 0xff) << 8) |
+			((chunk[2] & 0xff) << 16) | ((chunk[3] & 0xff) << 24);
+		if(Crc32C.mask(crc.compute(data, offset, length)) != expected) {
+			throw new FormatViolationException("Checksum mismatch");
+		}
+	}
+
+	// Reads the type and length of the next chunk and returns false
+	// at the end of the stream.
+	private boolean readHeader() throws IOException {
+		int r = delegate.read(header, 0, 4);
+		if(r < 0) {
+			return false;
+		}
+		int o = r;
+		while(o < 4) {
+			r = delegate.read(header, o, 4 - o);
+			if(r < 0) {
+				throw new EOFException();
+			}
+			o += r;
+		}
+		return true;
+	}
+
+	private void readFully(byte[] b, int length) throws IOException {
+		int o = 0;
+		while(o < length) {
+			int r = delegate.read(b, o, length - o);
+			if(r < 0) {
+				throw new EOFException();
+			}
+			o += r;
+		}
+	}
+
+}
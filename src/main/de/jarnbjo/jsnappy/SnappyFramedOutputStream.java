@@ -0,0 +1,185 @@
+/*
+ *  Copyright 2011 Tor-Einar Jarnbjo
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package de.jarnbjo.jsnappy;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * <p>
+ * This class implements a stream filter for writing compressed data in the Snappy
+ * framing format, which is supported by other Snappy implementations.
+ * </p>
+ *
+ * <p>
+ * The stream starts with a stream identifier, followed by chunks of no more than 64 KB
+ * of uncompressed data. Each chunk carries a masked CRC-32C checksum of its uncompressed
+ * data, which is computed right before the chunk is compressed, while the data is still
+ * in the cache. Chunks, which cannot be compressed by at least 1/8, are stored
+ * uncompressed. On Java 9 and later, the checksum is computed by
+ * <code>java.util.zip.CRC32C</code>.
+ * </p>
+ *
+ * @author Tor-Einar Jarnbjo
+ * @since 1.1
+ */
+public class SnappyFramedOutputStream extends OutputStream {
+
+	// maximum number of uncompressed bytes in a chunk
+	static final int MAX_CHUNK_SIZE = 65536;
+
+	static final int COMPRESSED_CHUNK = 0x00;
+	static final int UNCOMPRESSED_CHUNK = 0x01;
+	static final int STREAM_IDENTIFIER = 0xff;
+
+	static final byte[] STREAM_IDENTIFIER_CHUNK = {(byte) STREAM_IDENTIFIER, 6, 0, 0, 's', 'N', 'a', 'P', 'p', 'Y'};
+
+	private final OutputStream delegate;
+
+	private final byte[] buffer = new byte[MAX_CHUNK_SIZE];
+	private int bufferIndex;
+
+	private final Buffer cbuffer = new Buffer(SnappyCompressor.maxCompressedLength(MAX_CHUNK_SIZE));
+
+	private final byte[] header = new byte[8];
+	private final byte[] tmpBuffer = new byte[1];
+
+	private final Crc32C crc = Crc32C.newInstance();
+
+	private int effort = SnappyCompressor.DEFAULT_EFFORT;
+	private CompressionContext context;
+
+	private boolean closed = false;
+
+	/**
+	 * Creates a new compressing output stream and writes the stream identifier.
+	 * @param out target output stream
+	 * @throws IOException
+	 */
+	public SnappyFramedOutputStream(OutputStream out) throws IOException {
+		this.delegate = out;
+		delegate.write(STREAM_IDENTIFIER_CHUNK);
+	}
+
+	/**
+	 * Writes the byte to the compressed output stream.
+	 */
+	@Override
+	public void write(int data) throws IOException {
+		tmpBuffer[0] = (byte) data;
+		write(tmpBuffer, 0, 1);
+	}
+
+	/**
+	 * Writes <code>length</code> bytes of data to the compressed stream
+	 * from <code>data</code>, starting at index <code>offset</code>.
+	 */
+	@Override
+	public void write(byte[] data, int offset, int length) throws IOException {
+
+		if(closed) {
+			throw new IllegalStateException("Stream is closed");
+		}
+
+		while(length > 0) {
+			int l = Math.min(length, MAX_CHUNK_SIZE - bufferIndex);
+			System.arraycopy(data, offset, buffer, bufferIndex, l);
+			bufferIndex += l;
+			offset += l;
+			length -= l;
+			if(bufferIndex == MAX_CHUNK_SIZE) {
+				flushBuffer();
+			}
+		}
+	}
+
+	/**
+	 * Returns the compression effort used by this stream.
+	 * @return
+	 */
+	public int getCompressionEffort() {
+		return effort;
+	}
+
+	/**
+	 * Sets the compression effort used by this stream from 1 (fastest, less
+	 * compression) to 100 (slowest, best compression), which takes effect on
+	 * the next chunk.
+	 * @param effort
+	 */
+	public void setCompressionEffort(int effort) {
+		this.effort = effort;
+	}
+
+	/**
+	 * Writes the buffered data as a chunk and flushes the underlying stream.
+	 */
+	@Override
+	public void flush() throws IOException {
+		if(closed) {
+			throw new IllegalStateException("Stream is closed");
+		}
+		flushBuffer();
+		delegate.flush();
+	}
+
+	private void flushBuffer() throws IOException {
+		if(bufferIndex > 0) {
+			int checksum = Crc32C.mask(crc.compute(buffer, 0, bufferIndex));
+			if(context == null || context.getEffort() != effort) {
+				context = SnappyCompressor.newContext(effort);
+			}
+			context.compress(buffer, 0, bufferIndex, cbuffer);
+			if(cbuffer.getLength() < bufferIndex - bufferIndex / 8) {
+				writeChunk(COMPRESSED_CHUNK, checksum, cbuffer.getData(), cbuffer.getLength());
+			}
+			else {
+				writeChunk(UNCOMPRESSED_CHUNK, checksum, buffer, bufferIndex);
+			}
+			bufferIndex = 0;
+		}
+	}
+
+	private void writeChunk(int type, int checksum, byte[] data, int length) throws IOException {
+		// the chunk length includes the checksum, all values are little endian
+		int l = length + 4;
+		header[0] = (byte) type;
+		header[1] = (byte) l;
+		header[2] = (byte) (l >> 8);
+		header[3] = (byte) (l >> 16);
+		header[4] = (byte) checksum;
+		header[5] = (byte) (checksum >> 8);
+		header[6] = (byte) (checksum >> 16);
+		header[7] = (byte) (checksum >> 24);
+		delegate.write(header, 0, 8);
+		delegate.write(data, 0, length);
+	}
+
+	/**
+	 * Writes the buffered data as a chunk and closes the underlying stream.
+	 */
+	@Override
+	public void close() throws IOException {
+		if(closed) {
+			return;
+		}
+		flushBuffer();
+		delegate.close();
+		closed = true;
+	}
+
+}
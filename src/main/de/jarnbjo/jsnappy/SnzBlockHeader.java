@@ -0,0 +1,120 @@
+/*
+ *  Copyright 2011 Tor-Einar Jarnbjo
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package de.jarnbjo.jsnappy;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * Parser for the block headers of the SNZ format, shared by the stream
+ * readers and <code>SnzFiles</code>, so that all of them validate the
+ * headers the same way.
+ */
+class SnzBlockHeader {
+
+	/**
+	 * Source of the header bytes.
+	 */
+	interface Input {
+		/**
+		 * Returns the next byte or -1 at the end of the input.
+		 */
+		int read() throws IOException;
+	}
+
+	private final Input in;
+
+	// flags and uncompressed length of the current block, which are
+	// only stored in version 2, the length is -1 in version 1
+	int flags;
+	int uncompressedLength = -1;
+
+	SnzBlockHeader(Input in) {
+		this.in = in;
+	}
+
+	/**
+	 * Reads the header of the next block and returns its compressed length,
+	 * which is 0 at the end of the stream. In version 2, the flags and the
+	 * uncompressed length are stored in this object and optional fields
+	 * are skipped.
+	 * @throws FormatViolationException if the header is invalid for the
+	 *   version and block size of the stream
+	 */
+	int read(int version, int blockSize) throws IOException {
+		int cLength = readVInt(SnappyCompressor.maxCompressedLength(blockSize), "Illegal block length");
+		if(cLength != 0 && version == 2) {
+			flags = in.read();
+			if(flags < 0) {
+				throw new EOFException();
+			}
+			if((flags & ~SnzOutputStream.KNOWN_FLAGS) != 0) {
+				throw new FormatViolationException("Unsupported block flags: " + flags);
+			}
+			uncompressedLength = readVInt(blockSize, "Illegal uncompressed block length");
+			if(uncompressedLength == 0) {
+				throw new FormatViolationException("Illegal uncompressed block length: 0");
+			}
+			if(isStored() && cLength != uncompressedLength) {
+				throw new FormatViolationException("Stored block length " + cLength + " does not match the block header: " + uncompressedLength);
+			}
+			if((flags & SnzOutputStream.FLAG_OPTIONAL_FIELDS) != 0) {
+				for(int n = readVInt(SnzOutputStream.MAX_OPTIONAL_FIELDS_LENGTH, "Illegal optional fields length"); n > 0; n--) {
+					if(in.read() < 0) {
+						throw new EOFException();
+					}
+				}
+			}
+		}
+		return cLength;
+	}
+
+	/**
+	 * Returns true if the data of the current block is stored uncompressed.
+	 */
+	boolean isStored() {
+		return (flags & SnzOutputStream.FLAG_STORED) != 0;
+	}
+
+	// Compares the length of a decompressed block with the length in its
+	// header, which is -1 in version 1.
+	static void checkUncompressedLength(int length, int expected) throws FormatViolationException {
+		if(expected >= 0 && length != expected) {
+			throw new FormatViolationException("Uncompressed block length " + length + " does not match the block header: " + expected);
+		}
+	}
+
+	// Reads a variable length integer of no more than 5 bytes and max.
+	private int readVInt(int max, String message) throws IOException {
+		int i, o = 0, vint = 0;
+		do {
+			i = in.read();
+			if (i < 0) {
+				throw new EOFException();
+			}
+			if (o == 5) {
+				throw new FormatViolationException(message);
+			}
+			vint += (i & 0x7f) << (o++ * 7);
+		} while ((i & 0x80) == 0x80);
+		if (vint < 0 || vint > max) {
+			throw new FormatViolationException(message + ": " + vint);
+		}
+		return vint;
+	}
+
+}
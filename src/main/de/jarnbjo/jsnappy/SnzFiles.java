@@ -0,0 +1,235 @@
+/*
+ *  Copyright 2011 Tor-Einar Jarnbjo
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package de.jarnbjo.jsnappy;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>
+ * This class provides utility methods for compressing files into the SNZ file format
+ * and decompressing them again, producing the same data as <code>SnzOutputStream</code>
+ * and accepting the same data as <code>SnzInputStream</code>.
+ * </p>
+ *
+ * <p>
+ * The source file is memory-mapped in windows of 64 MB, so that files of any size,
+ * including files larger than 2 GB, can be processed. Blocks are compressed directly
+ * from the mapped windows and the output is collected in a buffer of 1 MB, which is
+ * written through a <code>FileChannel</code>.
+ * </p>
+ *
+ * @author Tor-Einar Jarnbjo
+ * @since 1.1
+ */
+public class SnzFiles {
+
+	private static final int MAP_WINDOW_SIZE = 1 << 26;
+	private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+	private SnzFiles() {
+	}
+
+	/**
+	 * Equivalent to <code>compress(src, dst, SnzOutputStream.DEFAULT_BUFFER_SIZE, SnappyCompressor.DEFAULT_EFFORT)</code>.
+	 * @param src file to be compressed
+	 * @param dst compressed file, which is created or replaced
+	 * @throws IOException
+	 */
+	public static void compress(Path src, Path dst) throws IOException {
+		compress(src, dst, SnzOutputStream.DEFAULT_BUFFER_SIZE, SnappyCompressor.DEFAULT_EFFORT);
+	}
+
+	/**
+	 * Compresses the file <code>src</code> into the SNZ file <code>dst</code>.
+	 * @param src file to be compressed
+	 * @param dst compressed file, which is created or replaced
+	 * @param blockSize block size must be a power of 2 between 2**0 and 2**29
+	 * @param effort compression effort from 1 (fastest, less compression) to 100 (slowest, best compression)
+	 * @throws IOException
+	 */
+	public static void compress(Path src, Path dst, int blockSize, int effort) throws IOException {
+
+		int blockSize2 = SnzOutputStream.log2(blockSize);
+		CompressionContext context = SnappyCompressor.newContext(effort);
+
+		// the windows hold a whole number of blocks
+		int windowSize = Math.max(blockSize, MAP_WINDOW_SIZE);
+		int maxBlockLength = 5 + SnappyCompressor.maxCompressedLength(blockSize);
+
+		try(FileChannel in = FileChannel.open(src, StandardOpenOption.READ);
+			FileChannel out = FileChannel.open(dst, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+			ByteBuffer buffer = ByteBuffer.allocate(Math.max(WRITE_BUFFER_SIZE, maxBlockLength));
+			ByteBuffer cbuffer = ByteBuffer.allocate(maxBlockLength);
+
+			buffer.put((byte)'S').put((byte)'N').put((byte)'Z').put((byte)1).put((byte)blockSize2);
+
+			long size = in.size();
+			for(long position = 0; position < size; position += windowSize) {
+				MappedByteBuffer window = in.map(FileChannel.MapMode.READ_ONLY, position, Math.min(windowSize, size - position));
+				int windowLength = window.capacity();
+				for(int block = 0; block < windowLength; block += blockSize) {
+					// the casts are required for running on Java 8, where
+					// ByteBuffer does not override these methods
+					((java.nio.Buffer) window).limit(Math.min(windowLength, block + blockSize));
+					((java.nio.Buffer) window).position(block);
+					((java.nio.Buffer) cbuffer).clear();
+					int l = context.compress(window, cbuffer);
+					if(buffer.remaining() < 5 + l) {
+						flush(buffer, out);
+					}
+					while(l >= 0x80) {
+						buffer.put((byte)(0x80 | (l&0x7f)));
+						l >>= 7;
+					}
+					buffer.put((byte)l);
+					((java.nio.Buffer) cbuffer).flip();
+					buffer.put(cbuffer);
+				}
+			}
+
+			// end-of-stream marker
+			if(!buffer.hasRemaining()) {
+				flush(buffer, out);
+			}
+			buffer.put((byte)0);
+			flush(buffer, out);
+		}
+	}
+
+	/**
+	 * Decompresses the SNZ file <code>src</code> into the file <code>dst</code>.
+	 * @param src compressed file
+	 * @param dst decompressed file, which is created or replaced
+	 * @throws FormatViolationException if the compressed file is invalid
+	 * @throws IOException
+	 */
+	public static void decompress(Path src, Path dst) throws IOException {
+
+		try(FileChannel fin = FileChannel.open(src, StandardOpenOption.READ);
+			FileChannel out = FileChannel.open(dst, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+			MappedInput in = new MappedInput(fin);
+
+			if(in.read() != 'S' || in.read() != 'N' || in.read() != 'Z') {
+				throw new FormatViolationException("Illegal prefix in SNZ stream");
+			}
+			int v = in.read();
+			if(v != 1 && v != 2) {
+				throw new FormatViolationException("Illegal SNZ version: " + v + " (only 1 and 2 are supported)", 1);
+			}
+			int blockSize2 = in.read();
+			if(blockSize2 < 0 || blockSize2 > 29) {
+				throw new FormatViolationException("Illegal SNZ block size: 2**" + blockSize2, 4);
+			}
+
+			ByteBuffer buffer = ByteBuffer.allocate(Math.max(WRITE_BUFFER_SIZE, 1 << blockSize2));
+			// no valid block is longer, so cbuffer is never grown
+			byte[] cbuffer = new byte[SnappyCompressor.maxCompressedLength(1 << blockSize2)];
+
+			SnzBlockHeader header = new SnzBlockHeader(in::read);
+			int cLength;
+			while((cLength = header.read(v, 1 << blockSize2)) != 0) {
+				// the compressed blocks are copied from the mapped window
+				// and decompressed from the array, which is faster than
+				// decompressing from the window
+				boolean stored = header.isStored();
+				in.readFully(cbuffer, cLength);
+				ByteBuffer block = ByteBuffer.wrap(cbuffer, 0, cLength);
+				int length = stored ? cLength : SnappyDecompressor.getDecompressedLength(block);
+				SnzBlockHeader.checkUncompressedLength(length, header.uncompressedLength);
+				if(buffer.remaining() < length) {
+					flush(buffer, out);
+					if(buffer.capacity() < length) {
+						buffer = ByteBuffer.allocate(length);
+					}
+				}
+				if(stored) {
+					buffer.put(block);
+				}
+				else {
+					SnappyDecompressor.decompress(block, buffer);
+				}
+			}
+
+			flush(buffer, out);
+		}
+	}
+
+	private static void flush(ByteBuffer buffer, FileChannel out) throws IOException {
+		((java.nio.Buffer) buffer).flip();
+		while(buffer.hasRemaining()) {
+			out.write(buffer);
+		}
+		((java.nio.Buffer) buffer).clear();
+	}
+
+	// Sequential reader, mapping the file in windows.
+	private static class MappedInput {
+
+		private final FileChannel channel;
+		private final long size;
+		private long windowStart = 0;
+		private MappedByteBuffer window;
+
+		MappedInput(FileChannel channel) throws IOException {
+			this.channel = channel;
+			this.size = channel.size();
+		}
+
+		// Returns true if data is available at the current position,
+		// mapping the next window if required.
+		private boolean available() throws IOException {
+			if(window != null && window.hasRemaining()) {
+				return true;
+			}
+			if(window != null) {
+				windowStart += window.capacity();
+				window = null;
+			}
+			if(windowStart >= size) {
+				return false;
+			}
+			window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(MAP_WINDOW_SIZE, size - windowStart));
+			return true;
+		}
+
+		int read() throws IOException {
+			return available() ? window.get() & 0xff : -1;
+		}
+
+		void readFully(byte[] b, int length) throws IOException {
+			int offset = 0;
+			while(offset < length) {
+				if(!available()) {
+					throw new EOFException();
+				}
+				int l = Math.min(length - offset, window.remaining());
+				window.get(b, offset, l);
+				offset += l;
+			}
+		}
+
+	}
+
+}
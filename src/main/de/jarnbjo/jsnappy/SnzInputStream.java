@@ -39,11 +39,23 @@ public class SnzInputStream extends FilterInputStream {
 	boolean initialized = false;
 	private boolean eof = false;
 
-	private int blockSize;
+	int blockSize;
+	int version;
 
+	final SnzBlockHeader blockHeader = new SnzBlockHeader(this::readByte);
+
+	final BufferPool pool;
+
+	private Buffer cbuffer;
 	private Buffer dbuffer;
 	private int dbufferIndex = 0;
 
+	// compressed data read ahead from the underlying stream, so that the
+	// header and the block lengths are not read one byte at a time
+	private static final int STAGING_SIZE = 8192;
+	private Buffer staging;
+	private int stagingIndex, stagingLength;
+
 	private byte[] tmpBuffer = new byte[1];
 	
 	/**
@@ -51,7 +63,20 @@ public class SnzInputStream extends FilterInputStream {
 	 * @param in
 	 */
 	public SnzInputStream(InputStream in) {
+		this(in, null);
+	}
+
+	/**
+	 * Creates a new SnzInputStream, reading from the provided InputStream <code>in</code>,
+	 * which acquires its buffers from <code>pool</code> and releases them when the stream
+	 * is closed.
+	 * @param in
+	 * @param pool pool providing the buffers or <code>null</code> to allocate them
+	 * @since 1.1
+	 */
+	public SnzInputStream(InputStream in, BufferPool pool) {
 		super(in);
+		this.pool = pool;
 	}
 
 	/**
@@ -105,18 +130,48 @@ public class SnzInputStream extends FilterInputStream {
 		}
 
 		if (dbuffer == null || dbufferIndex >= dbuffer.getLength()) {
-			int cLength = readVInt();
+			int cLength = readBlockHeader();
 			if (cLength == 0) {
 				eof = true;
 				return -1;
 			}
-			byte[] cbuffer = new byte[cLength];
-			int o = 0;
-			while(o < cLength) {
-				o += super.read(cbuffer, o, cbuffer.length - o);
+			if(blockHeader.isStored()) {
+				// stored blocks are read directly into the caller's
+				// array if they fit, otherwise into dbuffer
+				if(cLength <= length) {
+					readFully(b, offset, cLength);
+					return cLength;
+				}
+				if(dbuffer == null) {
+					dbuffer = BufferPool.borrow(pool, blockSize);
+				}
+				readFully(dbuffer.getData(), 0, cLength);
+				dbuffer.setLength(cLength);
 			}
+			else {
+				// the buffers are kept for the next blocks
+				if(cbuffer == null) {
+					cbuffer = BufferPool.borrow(pool, cLength);
+				}
+				else {
+					cbuffer.ensureCapacity(cLength);
+				}
+				byte[] source = cbuffer.getData();
+				readFully(source, cLength);
 
-			dbuffer = SnappyDecompressor.decompress(cbuffer);
+				int dLength = SnappyDecompressor.getDecompressedLength(source, 0, cLength);
+				SnzBlockHeader.checkUncompressedLength(dLength, blockHeader.uncompressedLength);
+				if(dLength <= length) {
+					// the whole block fits, so it is decompressed directly
+					// into the caller's array instead of being copied
+					return SnappyDecompressor.decompress(source, 0, cLength, b, offset);
+				}
+
+				if(dbuffer == null) {
+					dbuffer = BufferPool.borrow(pool, blockSize);
+				}
+				SnappyDecompressor.decompress(source, 0, cLength, dbuffer);
+			}
 			dbufferIndex = 0;
 		}
 
@@ -130,36 +185,97 @@ public class SnzInputStream extends FilterInputStream {
 		return length;
 	}
 
+	/**
+	 * Closes the underlying input stream and returns the buffers to the pool.
+	 */
+	@Override
+	public void close() throws IOException {
+		super.close();
+		BufferPool.giveBack(pool, cbuffer);
+		BufferPool.giveBack(pool, dbuffer);
+		BufferPool.giveBack(pool, staging);
+		cbuffer = null;
+		dbuffer = null;
+		staging = null;
+		stagingIndex = stagingLength = 0;
+	}
+
 
 	void init() throws IOException {
 		if(!initialized) {
-			char c1 = (char) super.read();
-			char c2 = (char) super.read();
-			char c3 = (char) super.read();
-			int v = super.read();
+			char c1 = (char) readByte();
+			char c2 = (char) readByte();
+			char c3 = (char) readByte();
+			int v = readByte();
 			if(c1 != 'S' || c2 != 'N' || c3 != 'Z') {
 				throw new FormatViolationException("Illegal prefix in SNZ stream");
 			}
-			if(v != 1) {
-				throw new FormatViolationException("Illegal SNZ version: " + v + " (only 1 is supported)", 1);
+			if(v != 1 && v != 2) {
+				throw new FormatViolationException("Illegal SNZ version: " + v + " (only 1 and 2 are supported)", 1);
 			}
-			blockSize = 1 << super.read();
+			version = v;
+			int blockSize2 = readByte();
+			if(blockSize2 < 0 || blockSize2 > 29) {
+				throw new FormatViolationException("Illegal SNZ block size: 2**" + blockSize2, 4);
+			}
+			blockSize = 1 << blockSize2;
 		}
 		initialized = true;
 	}
 
 
-	int readVInt() throws IOException {
-		int i, o = 0, vint = 0;
-		do {
-			i = super.read();
-			if (i < 0) {
+	// Reads the header of the next block into blockHeader and returns its
+	// compressed length, which is 0 at the end of the stream.
+	int readBlockHeader() throws IOException {
+		return blockHeader.read(version, blockSize);
+	}
+
+	// Returns the next byte of the underlying stream or -1 at its end.
+	private int readByte() throws IOException {
+		if(stagingIndex >= stagingLength && !fill()) {
+			return -1;
+		}
+		return staging.getData()[stagingIndex++] & 0xff;
+	}
+
+	void readFully(byte[] b, int length) throws IOException {
+		readFully(b, 0, length);
+	}
+
+	// Reads exactly length bytes of the underlying stream into b from offset.
+	// Large parts are read directly into b, bypassing the staging buffer.
+	void readFully(byte[] b, int offset, int length) throws IOException {
+		int o = offset, end = offset + length;
+		while(o < end) {
+			if(stagingIndex < stagingLength) {
+				int l = Math.min(end - o, stagingLength - stagingIndex);
+				System.arraycopy(staging.getData(), stagingIndex, b, o, l);
+				stagingIndex += l;
+				o += l;
+			}
+			else if(end - o >= STAGING_SIZE) {
+				int r = in.read(b, o, end - o);
+				if(r < 0) {
+					throw new EOFException();
+				}
+				o += r;
+			}
+			else if(!fill()) {
 				throw new EOFException();
 			}
-			i &= 0xff;
-			vint += (i & 0x7f) << (o++ * 7);
-		} while ((i & 0x80) == 0x80);
-		return vint;
+		}
+	}
+
+	// Reads ahead into the empty staging buffer and returns false at the
+	// end of the underlying stream.
+	private boolean fill() throws IOException {
+		if(staging == null) {
+			staging = BufferPool.borrow(pool, STAGING_SIZE);
+		}
+		int r = in.read(staging.getData(), 0, STAGING_SIZE);
+		stagingIndex = 0;
+		stagingLength = Math.max(r, 0);
+		return r > 0;
 	}
 
 }
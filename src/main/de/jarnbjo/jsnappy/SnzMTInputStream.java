@@ -1,10 +1,10 @@
 package de.jarnbjo.jsnappy;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.InputStream;
-import java.util.LinkedList;
+import java.util.ArrayDeque;
 import java.util.concurrent.Executor;
-import java.util.concurrent.FutureTask;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -34,7 +34,13 @@ public class SnzMTInputStream extends SnzInputStream {
 
 	private boolean meEof = false, delegateEof = false;
 
-	private LinkedList<DecompTask> tasks = new LinkedList<DecompTask>();
+	private ArrayDeque<DecompTask> tasks = new ArrayDeque<DecompTask>();
+
+	// Tasks are reused together with their compressed and decompressed
+	// buffers once the decompressed data has been read. There are never
+	// more tasks than the read-ahead plus the task currently read from.
+	private ArrayDeque<DecompTask> freeTasks = new ArrayDeque<DecompTask>();
+	private DecompTask current;
 
 	private Buffer dbuffer;
 	private int dbufferIndex = 0;
@@ -57,7 +63,20 @@ public class SnzMTInputStream extends SnzInputStream {
 	 * @param executor
 	 */
 	public SnzMTInputStream(InputStream in, Executor executor) {
-		super(in);
+		this(in, executor, null);
+	}
+
+	/**
+	 * Creates an input stream, which reads from the specified input, uses
+	 * the provided executor and acquires the buffers of the blocks from
+	 * <code>pool</code>.
+	 * @param in
+	 * @param executor
+	 * @param pool pool providing the buffers or <code>null</code> to allocate them
+	 * @since 1.1
+	 */
+	public SnzMTInputStream(InputStream in, Executor executor, BufferPool pool) {
+		super(in, pool);
 		this.executor = executor;
 	}
 
@@ -72,20 +91,29 @@ public class SnzMTInputStream extends SnzInputStream {
 
 		if (dbuffer == null || dbufferIndex >= dbuffer.getLength()) {
 
-			if(tasks.size() == 0) {
+			if(tasks.isEmpty()) {
 				meEof = true;
 				return -1;
 			}
 
 			DecompTask task = tasks.removeFirst();
-			try {
-				dbuffer = task.get();
-			}
-			catch(Exception e) {
-				throw new IOException(e.getMessage());
+			int n = -1;
+			if(task.claim()) {
+				// the executor has not started the block yet, so it is
+				// decompressed by this thread, directly into b if it fits
+				n = task.decompressClaimed(b, off, len);
 			}
+			dbuffer = n < 0 ? task.get() : null;
 			dbufferIndex = 0;
+			// the previous block has been read completely
+			if(current != null) {
+				freeTasks.addLast(current);
+			}
+			current = task;
 			newChunk();
+			if(n >= 0) {
+				return n;
+			}
 		}
 
 		if(len > dbuffer.getLength() - dbufferIndex) {
@@ -98,6 +126,25 @@ public class SnzMTInputStream extends SnzInputStream {
 		return len;
 	}
 
+	/**
+	 * Closes the underlying input stream and returns the buffers to the pool.
+	 * Blocks still being decompressed are left to the garbage collector.
+	 */
+	@Override
+	public void close() throws IOException {
+		super.close();
+		if(current != null) {
+			freeTasks.addLast(current);
+			current = null;
+		}
+		for(DecompTask task : freeTasks) {
+			BufferPool.giveBack(pool, task.source);
+			BufferPool.giveBack(pool, task.result);
+		}
+		freeTasks.clear();
+		dbuffer = null;
+	}
+
 	/**
 	 * Returns the default executor or null if no default executor has
 	 * been created yet.
@@ -128,7 +175,7 @@ public class SnzMTInputStream extends SnzInputStream {
 		defaultExecutor = executor;
 	}
 
-	private static synchronized Executor initDefaultExecutor() {
+	static synchronized Executor initDefaultExecutor() {
 		if(defaultExecutor == null) {
 			defaultExecutor =
 				new ThreadPoolExecutor(AVAILABLE_CPUS, AVAILABLE_CPUS * 2, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
@@ -146,17 +193,18 @@ public class SnzMTInputStream extends SnzInputStream {
 
 	private void newChunk() throws IOException {
 		if(!delegateEof) {
-			int cLength = readVInt();
+			int cLength = readBlockHeader();
 			if (cLength == 0) {
 				delegateEof = true;
 				return;
 			}
-			byte[] cbuffer = new byte[cLength];
-			int o = 0;
-			while(o < cLength) {
-				o += in.read(cbuffer, o, cbuffer.length - o);
+			DecompTask task = freeTasks.pollFirst();
+			if(task == null) {
+				task = new DecompTask(BufferPool.borrow(pool, cLength), BufferPool.borrow(pool, blockSize));
 			}
-			DecompTask task = new DecompTask(cbuffer);
+			task.reset(cLength, blockHeader.uncompressedLength, blockHeader.isStored());
+			readFully(task.source.getData(), cLength);
+			task.queued();
 			tasks.add(task);
 			executor.execute(task);
 		}
@@ -171,18 +219,137 @@ public class SnzMTInputStream extends SnzInputStream {
 		}
 	}
 
-	private class DecompTask extends FutureTask<Buffer> {
+	// A task is filled by the reading thread, queued for the executor and run
+	// by either the executor or the reading thread, whichever claims it first.
+	// The executor runs the task once per submission, possibly after it has
+	// been claimed by the reading thread or reused for another block.
+	private static class DecompTask implements Runnable {
+
+		private static final int FILLING = 0, QUEUED = 1, RUNNING = 2, DONE = 3;
+
+		final Buffer source;
+		private int sourceLength;
+		private int resultLength;
+		private boolean stored;
+		final Buffer result;
+
+		private int state = DONE;
+		private Throwable failure;
+
+		DecompTask(Buffer source, Buffer result) {
+			this.source = source;
+			this.result = result;
+		}
+
+		// Prepares the task for a block of the given length and uncompressed
+		// length from the block header or -1 if unknown. The block is read
+		// into source before the task is executed. Stored blocks are not
+		// decompressed, but handed out from source.
+		void reset(int sourceLength, int resultLength, boolean stored) {
+			source.ensureCapacity(sourceLength);
+			source.setLength(sourceLength);
+			this.sourceLength = sourceLength;
+			this.resultLength = resultLength;
+			this.stored = stored;
+			synchronized(this) {
+				failure = null;
+				state = FILLING;
+			}
+		}
+
+		// Marks the task as ready to be run, after source has been filled.
+		synchronized void queued() {
+			state = QUEUED;
+		}
+
+		// Returns true and marks the task as running, if it is queued.
+		synchronized boolean claim() {
+			if(state != QUEUED) {
+				return false;
+			}
+			state = RUNNING;
+			return true;
+		}
+
+		public void run() {
+			if(!claim()) {
+				return;
+			}
+			// errors are recorded as well, so that the reading thread
+			// does not wait forever for a task which never finishes
+			Throwable f = null;
+			try {
+				if(!stored) {
+					SnappyDecompressor.decompress(source.getData(), 0, sourceLength, result);
+					SnzBlockHeader.checkUncompressedLength(result.getLength(), resultLength);
+				}
+			}
+			catch(Throwable t) {
+				f = t;
+			}
+			finally {
+				finish(f);
+			}
+		}
+
+		// Decompresses the claimed block on the calling thread. If it fits
+		// into b, it is decompressed or copied into b and its length is
+		// returned, otherwise it is decompressed into result and -1 is returned.
+		int decompressClaimed(byte[] b, int off, int len) throws IOException {
+			int n = -1;
+			Throwable f = null;
+			try {
+				byte[] data = source.getData();
+				if(stored) {
+					if(sourceLength <= len) {
+						System.arraycopy(data, 0, b, off, sourceLength);
+						n = sourceLength;
+					}
+				}
+				else {
+					int length = SnappyDecompressor.getDecompressedLength(data, 0, sourceLength);
+					SnzBlockHeader.checkUncompressedLength(length, resultLength);
+					if(length <= len) {
+						n = SnappyDecompressor.decompress(data, 0, sourceLength, b, off);
+					}
+					else {
+						SnappyDecompressor.decompress(data, 0, sourceLength, result);
+					}
+				}
+			}
+			catch(Throwable t) {
+				f = t;
+			}
+			finally {
+				finish(f);
+			}
+			if(f != null) {
+				throw new IOException(f.getMessage(), f);
+			}
+			return n;
+		}
 
-		public DecompTask(byte[] source) {
-			this(source, new Buffer());
+		private synchronized void finish(Throwable f) {
+			failure = f;
+			state = DONE;
+			notifyAll();
 		}
 
-		private DecompTask(final byte[] source, final Buffer result) {
-			super(new Runnable() {
-				public void run() {
-					SnappyDecompressor.decompress(source, result);
+		synchronized Buffer get() throws IOException {
+			while(state != DONE) {
+				try {
+					wait();
 				}
-			}, result);
+				catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				}
+			}
+			if(failure != null) {
+				throw new IOException(failure.getMessage(), failure);
+			}
+			// stored blocks are read from source without copying
+			return stored ? source : result;
 		}
 
 	}
@@ -0,0 +1,250 @@
+package de.jarnbjo.jsnappy;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * <p>
+ * Alternative to <code>SnzOutputStream</code> with support for multi-threaded compression.
+ * </p>
+ *
+ * <p>
+ * Full blocks are compressed by the threads of an executor, while the writing thread
+ * continues filling the next block. The compressed blocks are written to the underlying
+ * stream in their original order, so that the output is the same as the output of
+ * <code>SnzOutputStream</code>. The number of blocks being compressed at the same time
+ * is bounded, by default to twice the number of available CPUs, and the writing thread
+ * waits for the oldest block if the limit is reached.
+ * </p>
+ *
+ * <p>
+ * By default, the default executor of <code>SnzMTInputStream</code> is used. Exceptions
+ * thrown while compressing a block are rethrown as an <code>IOException</code> by the
+ * next call of <code>write</code> or <code>close</code>, which processes the block.
+ * </p>
+ *
+ * @author Tor-Einar Jarnbjo
+ * @since 1.1
+ */
+public class SnzMTOutputStream extends SnzOutputStream {
+
+	private static final int AVAILABLE_CPUS = Runtime.getRuntime().availableProcessors();
+
+	private final Executor executor;
+	private final int maxBlocksInFlight;
+
+	// blocks being compressed in the order of submission
+	private final ArrayDeque<BlockTask> tasks = new ArrayDeque<BlockTask>();
+	// blocks already written, reused together with their buffers and contexts
+	private final ArrayDeque<Block> freeBlocks = new ArrayDeque<Block>();
+
+	private IOException failure;
+
+	/**
+	 * Creates a new compressing output stream with the default buffer size,
+	 * which uses the default executor.
+	 * @param out target output stream
+	 * @throws IOException
+	 */
+	public SnzMTOutputStream(OutputStream out) throws IOException {
+		this(out, DEFAULT_BUFFER_SIZE, SnzMTInputStream.initDefaultExecutor());
+	}
+
+	/**
+	 * Creates a new compressing output stream with the default buffer size,
+	 * which uses the provided executor.
+	 * @param out target output stream
+	 * @param executor executor compressing the blocks
+	 * @throws IOException
+	 */
+	public SnzMTOutputStream(OutputStream out, Executor executor) throws IOException {
+		this(out, DEFAULT_BUFFER_SIZE, executor);
+	}
+
+	/**
+	 * Creates a new compressing output stream with the specified buffer size,
+	 * which uses the provided executor.
+	 * @param out target output stream
+	 * @param bufferSize buffer size must be a power of 2 between 2**0 and 2**29
+	 * @param executor executor compressing the blocks
+	 * @throws IOException
+	 */
+	public SnzMTOutputStream(OutputStream out, int bufferSize, Executor executor) throws IOException {
+		this(out, bufferSize, executor, AVAILABLE_CPUS * 2);
+	}
+
+	/**
+	 * Creates a new compressing output stream with the specified buffer size,
+	 * which uses the provided executor and compresses no more than
+	 * <code>maxBlocksInFlight</code> blocks at the same time.
+	 * @param out target output stream
+	 * @param bufferSize buffer size must be a power of 2 between 2**0 and 2**29
+	 * @param executor executor compressing the blocks
+	 * @param maxBlocksInFlight maximum number of blocks submitted to the executor and not yet written
+	 * @throws IOException
+	 */
+	public SnzMTOutputStream(OutputStream out, int bufferSize, Executor executor, int maxBlocksInFlight) throws IOException {
+		this(out, bufferSize, executor, maxBlocksInFlight, null);
+	}
+
+	/**
+	 * Creates a new compressing output stream with the specified buffer size,
+	 * which uses the provided executor, compresses no more than
+	 * <code>maxBlocksInFlight</code> blocks at the same time and acquires the
+	 * buffers of the blocks from <code>pool</code>.
+	 * @param out target output stream
+	 * @param bufferSize buffer size must be a power of 2 between 2**0 and 2**29
+	 * @param executor executor compressing the blocks
+	 * @param maxBlocksInFlight maximum number of blocks submitted to the executor and not yet written
+	 * @param pool pool providing the buffers or <code>null</code> to allocate them
+	 * @throws IOException
+	 */
+	public SnzMTOutputStream(OutputStream out, int bufferSize, Executor executor, int maxBlocksInFlight, BufferPool pool) throws IOException {
+		super(out, bufferSize, pool);
+		if(maxBlocksInFlight < 1) {
+			throw new IllegalArgumentException("maxBlocksInFlight must be at least 1");
+		}
+		this.executor = executor;
+		this.maxBlocksInFlight = maxBlocksInFlight;
+	}
+
+	@Override
+	void flushBuffer() throws IOException {
+
+		if(failure != null) {
+			throw failure;
+		}
+
+		// write the blocks already done, and wait for the oldest
+		// one if the limit is reached
+		while(!tasks.isEmpty() && (tasks.size() >= maxBlocksInFlight || tasks.peekFirst().isDone())) {
+			writeFirst();
+		}
+
+		if(bufferIndex > 0) {
+			// the full buffer is handed over to the block, and the
+			// block's previous buffer is filled next
+			Block block = freeBlocks.pollFirst();
+			if(block == null) {
+				block = new Block(BufferPool.borrow(pool, bufferSize), BufferPool.borrow(pool, SnappyCompressor.maxCompressedLength(bufferSize)));
+			}
+			Buffer data = block.data;
+			block.data = input;
+			block.length = bufferIndex;
+			block.effort = getCompressionEffort();
+			input = data;
+			buffer = data.getData();
+			bufferIndex = 0;
+
+			BlockTask task = new BlockTask(block);
+			tasks.addLast(task);
+			try {
+				executor.execute(task);
+			}
+			catch(RejectedExecutionException e) {
+				tasks.removeLast();
+				throw fail(new IOException("Block rejected by the executor", e));
+			}
+		}
+	}
+
+	private void writeFirst() throws IOException {
+		BlockTask task = tasks.removeFirst();
+		Block block;
+		try {
+			block = task.get();
+		}
+		catch(InterruptedException e) {
+			// the block is lost, so the stream cannot be continued
+			Thread.currentThread().interrupt();
+			throw fail(new InterruptedIOException("Interrupted while waiting for a compressed block"));
+		}
+		catch(ExecutionException e) {
+			throw fail(new IOException("Compression of block failed", e.getCause()));
+		}
+		writeBlock(block.data.getData(), block.length, block.compressed.getData(), block.compressed.getLength());
+		freeBlocks.addLast(block);
+	}
+
+	private IOException fail(IOException e) {
+		failure = e;
+		return e;
+	}
+
+	/**
+	 * Flushes the remaining data into a new compressed block, waits until all blocks
+	 * are compressed and written, writes an end-of-stream marker and closes the
+	 * underlaying output stream. If compressing a block failed, the underlaying stream
+	 * is closed without writing the end-of-stream marker and the failure is rethrown.
+	 */
+	@Override
+	public void close() throws IOException {
+		if(closed) {
+			return;
+		}
+		try {
+			flushBuffer();
+			while(!tasks.isEmpty()) {
+				writeFirst();
+			}
+		}
+		catch(IOException e) {
+			closed = true;
+			delegate.close();
+			releaseBuffers();
+			throw e;
+		}
+		super.close();
+	}
+
+	// Blocks still being compressed after a failure are left to the
+	// garbage collector.
+	@Override
+	void releaseBuffers() {
+		super.releaseBuffers();
+		for(Block block : freeBlocks) {
+			BufferPool.giveBack(pool, block.data);
+			BufferPool.giveBack(pool, block.compressed);
+		}
+		freeBlocks.clear();
+	}
+
+	private static class Block {
+
+		Buffer data;
+		int length;
+		int effort;
+		CompressionContext context;
+		final Buffer compressed;
+
+		Block(Buffer data, Buffer compressed) {
+			this.data = data;
+			this.compressed = compressed;
+		}
+
+	}
+
+	private static class BlockTask extends FutureTask<Block> {
+
+		BlockTask(final Block block) {
+			super(new Callable<Block>() {
+				public Block call() {
+					if(block.context == null || block.context.getEffort() != block.effort) {
+						block.context = SnappyCompressor.newContext(block.effort);
+					}
+					block.context.compress(block.data.getData(), 0, block.length, block.compressed);
+					return block;
+				}
+			});
+		}
+
+	}
+
+}
@@ -16,8 +16,11 @@
 
 package de.jarnbjo.jsnappy;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
 
 /**
  * <p>
@@ -36,20 +39,60 @@ public class SnzOutputStream extends OutputStream {
 
 	public static final int DEFAULT_BUFFER_SIZE = 65536;
 
-	private OutputStream delegate;
+	static final int HEADER_LENGTH = 5;
 
-	private int bufferSize;
+	// Block flags of format version 2. Stored blocks contain the uncompressed
+	// data. Optional fields are preceded by their total length and skipped by
+	// readers, which do not know them.
+	static final int FLAG_STORED = 0x01;
+	static final int FLAG_OPTIONAL_FIELDS = 0x80;
+	static final int KNOWN_FLAGS = FLAG_STORED | FLAG_OPTIONAL_FIELDS;
+
+	/**
+	 * Default fraction of the uncompressed length, above which blocks are stored
+	 * uncompressed in format version 2.
+	 * @since 1.1
+	 */
+	public static final double DEFAULT_STORE_THRESHOLD = 0.875;
+	static final int MAX_OPTIONAL_FIELDS_LENGTH = 65536;
+
+	// magic number at the end of an index trailer, "SNZI"
+	static final int INDEX_MAGIC = 0x534e5a49;
+	static final int INDEX_FOOTER_LENGTH = 16;
+
+	OutputStream delegate;
+
+	final BufferPool pool;
+
+	final int bufferSize;
 	
-	private byte[] buffer;
-	private int bufferIndex;
+	Buffer input;
+	byte[] buffer;
+	int bufferIndex;
 	
 	private Buffer cbuffer;
 
 	private byte[] tmpBuffer = new byte[1];
+	// compressed length, flags and uncompressed length
+	private byte[] lengthBuffer = new byte[11];
+
+	private int version = 1;
+	private double storeThreshold = DEFAULT_STORE_THRESHOLD;
+	private boolean headerWritten = false;
 
-	private boolean closed = false;
+	boolean closed = false;
+
+	// block index written on close, holding the uncompressed and
+	// compressed offset of each block, or null if disabled
+	private long[] index;
+	private boolean written = false;
+	private int blockCount;
+	private long uncompressedPosition;
+	private long compressedPosition = HEADER_LENGTH;
 
 	private int effort = SnappyCompressor.DEFAULT_EFFORT;
+
+	private CompressionContext context;
 	
 	/**
 	 * Creates a new compressing output stream with the default buffer size.
@@ -67,28 +110,48 @@ public class SnzOutputStream extends OutputStream {
 	 * @throws IOException
 	 */
 	public SnzOutputStream(OutputStream out, int bufferSize) throws IOException {
+		this(out, bufferSize, null);
+	}
+
+	/**
+	 * Creates a new compressing output stream with the specified buffer size,
+	 * which acquires its buffers from <code>pool</code> and releases them when
+	 * the stream is closed.
+	 * @param out target output stream
+	 * @param bufferSize buffer size must be a power of 2 between 2**0 and 2**29
+	 * @param pool pool providing the buffers or <code>null</code> to allocate them
+	 * @throws IOException
+	 * @since 1.1
+	 */
+	public SnzOutputStream(OutputStream out, int bufferSize, BufferPool pool) throws IOException {
 		this.delegate = out;
 		this.bufferSize = bufferSize;
+		this.pool = pool;
 
-		if (bufferSize < 0) {
-			throw new IllegalArgumentException("bufferSize must be a power of 2 between 2**0 and 2**29");
-		}
-		
-		int bufferSize2 = 0;
-		while(bufferSize > 1) {
-			bufferSize2++;
-			if(bufferSize % 2 == 1 || bufferSize2 > 29) {
-				throw new IllegalArgumentException("bufferSize must be a power of 2 between 2**0 and 2**29");
-			}
-			bufferSize >>= 1;
+		log2(bufferSize);
+
+		this.input = BufferPool.borrow(pool, bufferSize);
+		this.buffer = input.getData();
+	}
+
+	// The header is written with the first block or on close, so that
+	// the format version can be chosen after creating the stream.
+	private void writeHeader() throws IOException {
+		if(!headerWritten) {
+			delegate.write("SNZ".getBytes("ASCII"));
+			delegate.write(version);
+			delegate.write(log2(bufferSize));
+			headerWritten = true;
 		}
+	}
 
-		this.buffer = new byte[this.bufferSize];
-		cbuffer = new Buffer(this.bufferSize * 6 / 5);
-		
-		delegate.write("SNZ".getBytes("ASCII"));
-		delegate.write(1);
-		delegate.write(bufferSize2);
+	// Returns the exponent of a block size, which must be a power of 2
+	// between 2**0 and 2**29.
+	static int log2(int bufferSize) {
+		if(bufferSize <= 0 || (bufferSize & (bufferSize - 1)) != 0 || bufferSize > 1 << 29) {
+			throw new IllegalArgumentException("bufferSize must be a power of 2 between 2**0 and 2**29");
+		}
+		return Integer.numberOfTrailingZeros(bufferSize);
 	}
 
 	/**
@@ -119,12 +182,14 @@ public class SnzOutputStream extends OutputStream {
 			throw new IllegalStateException("Stream is closed");
 		}
 
+		written |= length > 0;
+
 		while(length > 0) {
-			if(length > buffer.length - bufferIndex) {
-				System.arraycopy(data, offset, buffer, bufferIndex, buffer.length - bufferIndex);
-				offset += buffer.length - bufferIndex;
-				length -= buffer.length - bufferIndex;
-				bufferIndex = buffer.length;
+			if(length > bufferSize - bufferIndex) {
+				System.arraycopy(data, offset, buffer, bufferIndex, bufferSize - bufferIndex);
+				offset += bufferSize - bufferIndex;
+				length -= bufferSize - bufferIndex;
+				bufferIndex = bufferSize;
 				flushBuffer();
 			}
 			else {
@@ -159,17 +224,148 @@ public class SnzOutputStream extends OutputStream {
 		this.effort = effort;
 	}
 	
-	private void flushBuffer() throws IOException {
+	/**
+	 * Returns true if a block index is written when the stream is closed.
+	 * @return
+	 * @since 1.1
+	 */
+	public boolean isIndexed() {
+		return index != null;
+	}
+
+	/**
+	 * Enables or disables writing a block index after the end-of-stream marker
+	 * when the stream is closed. The index allows <code>SeekableSnzReader</code>
+	 * to decompress only the blocks it needs, and is ignored by readers, which
+	 * stop at the end-of-stream marker. It is disabled by default.
+	 * @param indexed
+	 * @throws IllegalStateException if data has already been written
+	 * @since 1.1
+	 */
+	public void setIndexed(boolean indexed) {
+		if(written) {
+			throw new IllegalStateException("Stream has already been written to");
+		}
+		index = indexed ? new long[64] : null;
+	}
+
+	/**
+	 * Returns the SNZ format version written by this stream.
+	 * @return
+	 * @since 1.1
+	 */
+	public int getFormatVersion() {
+		return version;
+	}
+
+	/**
+	 * Sets the SNZ format version written by this stream. Version 1, the default,
+	 * is compatible with snzip and all versions of this library. In version 2, each
+	 * block also carries its uncompressed length and a flags byte, which allows
+	 * readers to size their buffers and to skip or distribute blocks without
+	 * decompressing them. Version 2 can be read by <code>SnzInputStream</code>,
+	 * <code>SnzMTInputStream</code> and <code>SeekableSnzReader</code> from
+	 * version 1.1 of this library.
+	 * @param version 1 or 2
+	 * @throws IllegalArgumentException if the version is not supported
+	 * @throws IllegalStateException if data has already been written
+	 * @since 1.1
+	 */
+	public void setFormatVersion(int version) {
+		if(version != 1 && version != 2) {
+			throw new IllegalArgumentException("Unsupported SNZ version: " + version);
+		}
+		if(written) {
+			throw new IllegalStateException("Stream has already been written to");
+		}
+		this.version = version;
+	}
+
+	/**
+	 * Returns the fraction of the uncompressed length, above which blocks are
+	 * stored uncompressed.
+	 * @return
+	 * @since 1.1
+	 */
+	public double getStoreThreshold() {
+		return storeThreshold;
+	}
+
+	/**
+	 * Sets the fraction of the uncompressed length, above which blocks are stored
+	 * uncompressed, so that reading them only requires copying. With the default
+	 * of 0.875, blocks, which do not compress by at least 1/8, are stored. Blocks
+	 * can only be stored in format version 2, in version 1 the threshold is ignored.
+	 * @param storeThreshold
+	 * @throws IllegalArgumentException if the threshold is negative
+	 * @since 1.1
+	 */
+	public void setStoreThreshold(double storeThreshold) {
+		if(!(storeThreshold >= 0)) {
+			throw new IllegalArgumentException("Illegal store threshold: " + storeThreshold);
+		}
+		this.storeThreshold = storeThreshold;
+	}
+
+	// Compresses and writes the data in buffer, called when the buffer is full
+	// and on close.
+	void flushBuffer() throws IOException {
 		if(bufferIndex > 0) {
-			SnappyCompressor.compress(buffer, 0, bufferIndex, cbuffer, effort);
+			int length = bufferIndex;
+			if(context == null || context.getEffort() != effort) {
+				context = SnappyCompressor.newContext(effort);
+			}
+			if(cbuffer == null) {
+				cbuffer = BufferPool.borrow(pool, SnappyCompressor.maxCompressedLength(bufferSize));
+			}
+			context.compress(buffer, 0, bufferIndex, cbuffer);
 			bufferIndex = 0;
-			int l = cbuffer.getLength();
-			while(l>0) {
-				delegate.write(l >= 128 ? 0x80 | (l&0x7f) : l);
-				l >>= 7;
+			writeBlock(buffer, length, cbuffer.getData(), cbuffer.getLength());
+		}
+	}
+
+	// Writes a block with its length prefix, and in version 2 its flags and
+	// uncompressed length, to the delegate. In version 2, the uncompressed
+	// data is written instead if the block is not compressed well enough.
+	void writeBlock(byte[] uncompressed, int uncompressedLength, byte[] data, int length) throws IOException {
+		writeHeader();
+		int flags = 0;
+		if(version == 2 && length > uncompressedLength * storeThreshold) {
+			flags = FLAG_STORED;
+			data = uncompressed;
+			length = uncompressedLength;
+		}
+		if(index != null) {
+			if(2 * blockCount == index.length) {
+				index = Arrays.copyOf(index, 2 * index.length);
 			}
-			delegate.write(cbuffer.getData(), 0, cbuffer.getLength());
+			index[2 * blockCount] = uncompressedPosition;
+			index[2 * blockCount + 1] = compressedPosition;
 		}
+		blockCount++;
+		int l = AbstractCompressor.writeLength(length, lengthBuffer, 0);
+		if(version == 2) {
+			lengthBuffer[l++] = (byte) flags;
+			l = AbstractCompressor.writeLength(uncompressedLength, lengthBuffer, l);
+		}
+		delegate.write(lengthBuffer, 0, l);
+		delegate.write(data, 0, length);
+		uncompressedPosition += uncompressedLength;
+		compressedPosition += l + length;
+	}
+
+	// Writes the index trailer: the uncompressed and compressed offset of
+	// each block followed by the uncompressed length, the number of blocks
+	// and the magic number, all big endian.
+	private void writeIndex() throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(delegate));
+		for(int i = 0; i < 2 * blockCount; i++) {
+			out.writeLong(index[i]);
+		}
+		out.writeLong(uncompressedPosition);
+		out.writeInt(blockCount);
+		out.writeInt(INDEX_MAGIC);
+		out.flush();
 	}
 
 	/**
@@ -178,10 +374,27 @@ public class SnzOutputStream extends OutputStream {
 	 */
 	@Override
 	public void close() throws IOException {
+		if(closed) {
+			return;
+		}
 		flushBuffer();
+		writeHeader();
 		delegate.write(0);
+		if(index != null) {
+			writeIndex();
+		}
 		delegate.close();
 		closed = true;
+		releaseBuffers();
+	}
+
+	// Returns the buffers to the pool after the stream has been closed.
+	void releaseBuffers() {
+		BufferPool.giveBack(pool, input);
+		BufferPool.giveBack(pool, cbuffer);
+		input = null;
+		buffer = null;
+		cbuffer = null;
 	}
 
 }
@@ -2,209 +2,138 @@ package de.jarnbjo.jsnappy;
 
 import java.util.Arrays;
 
-class TableBasedCompressor {
-
-	public static final int DEFAULT_MAX_OFFSET = 64*1024;
-	
-	static Buffer compress(byte[] in, int offset, int length, Buffer out) {
+class TableBasedCompressor extends AbstractCompressor {
+
+	private final int maxHashBits;
+	private final int skipShift;
+	private final int matchInserts;
+
+	// The hash table is kept between invocations. Positions are stored
+	// with a running base added, so that entries left over from previous
+	// invocations are smaller than the current base and can be recognized
+	// as stale without clearing the table.
+	private int[] table;
+	private int base = 1;
+
+	/**
+	 * @param maxHashBits log2 of the maximum hash table size
+	 * @param skipShift log2 of the number of consecutive misses after which
+	 *   the distance between probed positions grows by one
+	 * @param matchInserts number of positions at the end of each match,
+	 *   which are added to the hash table
+	 */
+	TableBasedCompressor(int maxHashBits, int skipShift, int matchInserts) {
+		this.maxHashBits = maxHashBits;
+		this.skipShift = skipShift;
+		this.matchInserts = matchInserts;
+	}
 
-		if(out == null) {
-			out = new Buffer(length * 6 / 5);
-		}
-		else {
-			out.ensureCapacity(length * 6 / 5);
-		}
+	int compressFragment(byte[] in, int start, int offset, int length, byte[] target, int targetIndex) {
 
-		byte[] target = out.getData();
-		int targetIndex = 0;
 		int lasthit = offset;
 
-		int l = length;
-		while(l>0) {
-			if(l>=128) {
-				target[targetIndex++] = (byte)(0x80 | (l&0x7f));
-			}
-			else {
-				target[targetIndex++] = (byte)l;
-			}
-			l >>= 7;
+		// the table size is the input length rounded up to a power of two,
+		// but not less than 2**8 and not more than 2**maxHashBits entries
+		int hashBits = Math.min(maxHashBits, Math.max(8, 32 - Integer.numberOfLeadingZeros(length - 1)));
+		int tableSize = 1 << hashBits;
+		int hashShift = 32 - hashBits;
+		if(table == null || table.length < tableSize) {
+			table = new int[tableSize];
+			base = 1;
 		}
-
-		int[] ilhm = new int[length/5];
-		Arrays.fill(ilhm, -1);
-		
-		for(int i = offset; i+4 < length && i < offset+4; i++) {
-			ilhm[toInt(in, i) % ilhm.length] = i;
+		else if(base > Integer.MAX_VALUE - length) {
+			Arrays.fill(table, 0);
+			base = 1;
 		}
-
-		for(int i = offset+4; i < offset + length; i++) {
-			Hit h = search(in, i, length, ilhm);
-			if(i+4 < offset + length) {
-				ilhm[toInt(in, i) % ilhm.length] = i;
-			}
-			if(h != null) {
+		int[] ilhm = table;
+		int bias = base - offset;
+		int end = offset + length;
+		base += length;
+
+		// Positions from which a four byte key and at least one more byte
+		// can be read are searched and added to the table. The key is
+		// updated incrementally while advancing.
+		int limit = end - 4;
+		int i = offset;
+		int word = i < limit ? toInt(in, i) : 0;
+
+		// Like the reference implementation, the distance between probed
+		// positions grows by one for every 2**skipShift consecutive misses,
+		// so that incompressible data is skipped quickly. A hit resets the
+		// distance.
+		int firstMiss = 1 << skipShift;
+		int misses = firstMiss;
+
+		while(i < limit) {
+			int len = i < start + 4 ? 0 : search(in, i, word, start, end, ilhm, hashShift, bias);
+			if(len > 0) {
 				if(lasthit < i) {
-					int len = i - lasthit - 1;
-					if (len < 60) {
-						target[targetIndex++] = (byte)(len<<2);
-					}
-					else if (len < 0x100) {
-						target[targetIndex++] = (byte)(60<<2);
-						target[targetIndex++] = (byte)len;
-					}
-					else if (len < 0x10000) {
-						target[targetIndex++] = (byte)(61<<2);
-						target[targetIndex++] = (byte)len;
-						target[targetIndex++] = (byte)(len>>8);
-					}
-					else if (len < 0x1000000) {
-						target[targetIndex++] = (byte)(62<<2);
-						target[targetIndex++] = (byte)len;
-						target[targetIndex++] = (byte)(len>>8);
-						target[targetIndex++] = (byte)(len>>16);
-					}
-					else {
-						target[targetIndex++] = (byte)(63<<2);
-						target[targetIndex++] = (byte)len;
-						target[targetIndex++] = (byte)(len>>8);
-						target[targetIndex++] = (byte)(len>>16);
-						target[targetIndex++] = (byte)(len>>24);
-					}
-					System.arraycopy(in, lasthit, target, targetIndex, i-lasthit);
-					targetIndex += i - lasthit;
-					lasthit = i;
-				}
-				if(h.length <= 11 && h.offset < 2048) {
-					target[targetIndex] = 1;
-					target[targetIndex] |= ((h.length-4)<<2);
-					target[targetIndex++] |= (h.offset>>3)&0xe0;
-					target[targetIndex++] = (byte)(h.offset&0xff);
+					targetIndex = writeLiteral(in, lasthit, i - lasthit, target, targetIndex);
 				}
-				else if (h.offset < 65536) {
-					target[targetIndex] = 2;
-					target[targetIndex++] |= ((h.length-1)<<2);
-					target[targetIndex++] = (byte)(h.offset);
-					target[targetIndex++] = (byte)(h.offset>>8);
-				}
-				else {
-					target[targetIndex] = 3;
-					target[targetIndex++] |= ((h.length-1)<<2);
-					target[targetIndex++] = (byte)(h.offset);
-					target[targetIndex++] = (byte)(h.offset>>8);
-					target[targetIndex++] = (byte)(h.offset>>16);
-					target[targetIndex++] = (byte)(h.offset>>24);
-				}
-				for(; i < lasthit; i++) {
-					if(i + 4 < in.length) {
-						ilhm[toInt(in, i) % ilhm.length] = i;
+				targetIndex = writeCopy(matchOffset, len, target, targetIndex);
+				misses = firstMiss;
+				lasthit = i + len;
+				// only the last positions of the match are added
+				if(lasthit - i > matchInserts) {
+					i = lasthit - matchInserts;
+					if(i < limit) {
+						word = toInt(in, i);
 					}
 				}
-				lasthit = i + h.length;
-				while(i<lasthit-1) {
-					if(i + 4 < in.length) {
-						ilhm[toInt(in, i) % ilhm.length] = i;
-					}
-					i++;
+				for(; i < lasthit && i < limit; i++) {
+					ilhm[(word * 0x1e35a7bd) >>> hashShift] = i + bias;
+					word = (word << 8) | (in[i+4] & 0xff);
 				}
+				i = lasthit;
 			}
 			else {
-				if(i+4 < length) {
-					ilhm[toInt(in, i) % ilhm.length] = i;
+				ilhm[(word * 0x1e35a7bd) >>> hashShift] = i + bias;
+				int step = misses++ >> skipShift;
+				if(step == 1) {
+					word = (word << 8) | (in[i+4] & 0xff);
+					i++;
+				}
+				else {
+					i += step;
+					if(i < limit) {
+						word = toInt(in, i);
+					}
 				}
 			}
 		}
 
-		if (lasthit < offset + length) {
-			int len = (offset+length) - lasthit - 1;
-			if (len < 60) {
-				target[targetIndex++] = (byte)(len<<2);
-			}
-			else if (len < 0x100) {
-				target[targetIndex++] = (byte)(60<<2);
-				target[targetIndex++] = (byte)len;
-			}
-			else if (len < 0x10000) {
-				target[targetIndex++] = (byte)(61<<2);
-				target[targetIndex++] = (byte)len;
-				target[targetIndex++] = (byte)(len>>8);
-			}
-			else if (len < 0x1000000) {
-				target[targetIndex++] = (byte)(62<<2);
-				target[targetIndex++] = (byte)len;
-				target[targetIndex++] = (byte)(len>>8);
-				target[targetIndex++] = (byte)(len>>16);
-			}
-			else {
-				target[targetIndex++] = (byte)(63<<2);
-				target[targetIndex++] = (byte)len;
-				target[targetIndex++] = (byte)(len>>8);
-				target[targetIndex++] = (byte)(len>>16);
-				target[targetIndex++] = (byte)(len>>24);
-			}
-			System.arraycopy(in, lasthit, target, targetIndex, length - lasthit);
-			targetIndex += length - lasthit;
+		if (lasthit < end) {
+			targetIndex = writeLiteral(in, lasthit, end - lasthit, target, targetIndex);
 		}
 
-		out.setLength(targetIndex);
-		return out;
+		return targetIndex;
 	}
 
-	private static Hit search(byte[] source, int index, int length, int[] ilhm) {
-
-		if(index + 4 >= length) {
-			// We won't search for backward references if there are less than
-			// four bytes left to encode, since no relevant compression can be
-			// achieved and the map used to store possible back references uses
-			// a four byte key.
-			return null;
-		}
-
-		if(index > 0 &&
-				source[index] == source[index-1] &&
-				source[index] == source[index+1] &&
-		        source[index] == source[index+2] &&
-		        source[index] == source[index+3]) {
+	private int search(byte[] source, int index, int word, int start, int length, int[] ilhm, int hashShift, int bias) {
 
+		if(index > start) {
 			// at least five consecutive bytes, so we do
 			// run-length-encoding of the last four
 			// (three bytes are required for the encoding,
 			// so less than four bytes cannot be compressed)
-
-			int len = 0;
-			for(int i = index; len < 64 && i < length && source[index] == source[i]; i++, len++);
-			return new Hit(1, len);
+			int len = runLength(source, index, word, length, length - index);
+			if(len > 0) {
+				matchOffset = 1;
+				return len;
+			}
 		}
 
-		int fp = ilhm[toInt(source, index) % ilhm.length];
-		if(fp < 0) {
-			return null;
-		}
+		int fp = ilhm[(word * 0x1e35a7bd) >>> hashShift] - bias;
 		int offset = index - fp;
-		if(offset < 4) {
-			return null;
+		if(fp < start || offset >= FRAGMENT_SIZE) {
+			return 0;
 		}
-		int l = 0;
-		for(int o = fp, io = index; io < length && source[o] == source[io] && o < index && l < 64; o++, io++) {
-			l++;
+		int l = BYTES.matchLength(source, fp, index, length - index);
+		if(l < 4) {
+			return 0;
 		}
-		return l >= 4 ? new Hit(offset, l) : null;
+		matchOffset = offset;
+		return l;
 	}
 
-	private static int toInt(byte[] data, int offset) {
-		return
-			(((data[offset]&0xff)<<24) |
-			((data[offset+1]&0xff)<<16) |
-			((data[offset+2]&0xff)<<8) |
-			(data[offset+3]&0xff)) & 0x7fffffff;
-	}
-
-
-	private static class Hit {
-		int offset, length;
-		Hit(int offset, int length) {
-			this.offset = offset;
-			this.length = length;
-		}
-	}
-	
-}
\ No newline at end of file
+}
@@ -0,0 +1,283 @@
+/*
+ *  Copyright 2011 Tor-Einar Jarnbjo
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package de.jarnbjo.jsnappy;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/**
+ * <p>
+ * This class provides utility methods for compressing and decompressing data
+ * blocks held in memory segments, e.g. off-heap memory allocated from an arena
+ * or memory-mapped files. Offsets and lengths are <code>long</code> values, so
+ * that data beyond the first 2 GB of a segment can be processed. Use
+ * <code>MemorySegment.asSlice</code> to select the data to process. A compressed
+ * block can hold up to 2<sup>32</sup> - 1 bytes, which is the limit of the Snappy
+ * format.
+ * </p>
+ *
+ * <p>
+ * The input is read into the match tables of the compression context in 64 KB
+ * fragments and the compressed data is written one fragment at a time, so that
+ * the memory used is independent of the data size. Decompression reads and
+ * writes the segments directly.
+ * </p>
+ *
+ * <p>
+ * This class requires Java 22 or later and is only built if the build runs on
+ * such a runtime. All other classes of the library do not depend on it.
+ * </p>
+ *
+ * @author Tor-Einar Jarnbjo
+ * @since 1.1
+ */
+public class SnappyMemorySegments {
+
+	/**
+	 * Maximum length of a data block.
+	 */
+	public static final long MAX_BLOCK_LENGTH = 0xffffffffL;
+
+	private static final ValueLayout.OfByte BYTE = ValueLayout.JAVA_BYTE;
+	private static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG_UNALIGNED;
+
+	private SnappyMemorySegments() {
+	}
+
+	/**
+	 * Returns the maximum size of the compressed data block for an input of
+	 * <code>length</code> bytes.
+	 * @param length length of input data
+	 * @return maximum length of the compressed data block
+	 */
+	public static long maxCompressedLength(long length) {
+		return 32 + length + length / 6;
+	}
+
+	/**
+	 * Equivalent to <code>compress(in, out, SnappyCompressor.newContext(SnappyCompressor.DEFAULT_EFFORT))</code>.
+	 * @param in data to be compressed
+	 * @param out segment for the compressed data block
+	 * @return length of the compressed data block
+	 */
+	public static long compress(MemorySegment in, MemorySegment out) {
+		return compress(in, out, SnappyCompressor.newContext(SnappyCompressor.DEFAULT_EFFORT));
+	}
+
+	/**
+	 * Compress all bytes of <code>in</code> with the effort of <code>context</code>
+	 * and write the compressed data block to the start of <code>out</code>.
+	 *
+	 * @param in data to be compressed
+	 * @param out segment for the compressed data block with at least
+	 *   <code>maxCompressedLength(in.byteSize())</code> bytes
+	 * @param context compression context
+	 * @return length of the compressed data block
+	 * @throws IllegalArgumentException if <code>in</code> is longer than
+	 *   <code>MAX_BLOCK_LENGTH</code> or <code>out</code> is read-only
+	 * @throws IndexOutOfBoundsException if <code>out</code> is too small
+	 */
+	public static long compress(MemorySegment in, MemorySegment out, CompressionContext context) {
+
+		long length = in.byteSize();
+		if(length > MAX_BLOCK_LENGTH) {
+			throw new IllegalArgumentException("Input length " + length + " exceeds the maximum block length");
+		}
+		if(out.isReadOnly()) {
+			throw new IllegalArgumentException("Output segment is read-only");
+		}
+		if(out.byteSize() < maxCompressedLength(length)) {
+			throw new IndexOutOfBoundsException("Output segment length " + out.byteSize() + " is less than " + maxCompressedLength(length));
+		}
+
+		AbstractCompressor compressor = context.compressor;
+		byte[] target = compressor.outputFragment();
+		int targetIndex = AbstractCompressor.writeLength((int) length, target, 0);
+		long outIndex = 0;
+
+		for(long fragment = 0; fragment < length; fragment += AbstractCompressor.FRAGMENT_SIZE) {
+			int fragmentLength = (int) Math.min(AbstractCompressor.FRAGMENT_SIZE, length - fragment);
+			byte[] window = compressor.nextInputWindow(fragment == 0);
+			MemorySegment.copy(in, BYTE, fragment, window, compressor.inputWindowOffset(), fragmentLength);
+			targetIndex = compressor.compressInputWindow(fragmentLength, target, targetIndex);
+			MemorySegment.copy(target, 0, out, BYTE, outIndex, targetIndex);
+			outIndex += targetIndex;
+			targetIndex = 0;
+		}
+		// the length of empty input
+		MemorySegment.copy(target, 0, out, BYTE, outIndex, targetIndex);
+
+		return outIndex + targetIndex;
+	}
+
+	/**
+	 * Returns the length of the decompressed data block from the header of the
+	 * compressed block at the start of <code>in</code>.
+	 * @param in compressed data block
+	 * @return length of the decompressed data block
+	 * @throws FormatViolationException if the header is invalid
+	 */
+	public static long getDecompressedLength(MemorySegment in) throws FormatViolationException {
+		long targetLength = 0;
+		long index = 0;
+		for(int shift = 0; ; shift += 7) {
+			if(index >= in.byteSize() || shift > 28) {
+				throw new FormatViolationException("Invalid length on offset 0");
+			}
+			int b = in.get(BYTE, index++);
+			targetLength |= (long) (b & 0x7f) << shift;
+			if((b & 0x80) == 0) {
+				break;
+			}
+		}
+		if(targetLength > MAX_BLOCK_LENGTH) {
+			throw new FormatViolationException("Invalid length on offset 0");
+		}
+		return targetLength;
+	}
+
+	/**
+	 * Decompress the compressed data block, which fills <code>in</code>, and write
+	 * the decompressed data to the start of <code>out</code>.
+	 *
+	 * @param in compressed data block
+	 * @param out segment for the decompressed data with at least
+	 *   <code>getDecompressedLength(in)</code> bytes
+	 * @return length of the decompressed data block
+	 * @throws FormatViolationException if the input data is invalid
+	 * @throws IllegalArgumentException if <code>out</code> is read-only
+	 * @throws IndexOutOfBoundsException if <code>out</code> is too small
+	 */
+	public static long decompress(MemorySegment in, MemorySegment out) throws FormatViolationException {
+
+		long targetEnd = getDecompressedLength(in);
+		if(out.isReadOnly()) {
+			throw new IllegalArgumentException("Output segment is read-only");
+		}
+		if(out.byteSize() < targetEnd) {
+			throw new IndexOutOfBoundsException("Output segment length " + out.byteSize() + " is less than " + targetEnd);
+		}
+
+		long sourceIndex = 0;
+		while((in.get(BYTE, sourceIndex++) & 0x80) != 0) {
+		}
+		long sourceEnd = in.byteSize();
+		long targetIndex = 0;
+		long l, o;
+
+		while(sourceIndex < sourceEnd) {
+
+			if(targetIndex >= targetEnd) {
+				throw new FormatViolationException("Superfluous input data encountered on offset " + sourceIndex);
+			}
+
+			long tag = sourceIndex;
+			int b = in.get(BYTE, sourceIndex++);
+
+			switch(b & 3) {
+			case 0:
+				l = (b >> 2) & 0x3f;
+				if(l >= 60) {
+					int n = (int) l - 59;
+					if(n > sourceEnd - sourceIndex) {
+						throw new FormatViolationException("Truncated literal length on offset " + tag);
+					}
+					l = 0;
+					for(int k = 0; k < n; k++) {
+						l |= (long) (in.get(BYTE, sourceIndex++) & 0xff) << (k * 8);
+					}
+				}
+				l++;
+				if(l > targetEnd - targetIndex || l > sourceEnd - sourceIndex) {
+					throw new FormatViolationException("Invalid literal on offset " + tag);
+				}
+				copy(in, sourceIndex, out, targetIndex, l);
+				sourceIndex += l;
+				targetIndex += l;
+				continue;
+			case 1:
+				if(sourceIndex >= sourceEnd) {
+					throw new FormatViolationException("Truncated copy on offset " + tag);
+				}
+				l = 4 + ((b >> 2) & 7);
+				o = ((b & 0xe0) << 3) | (in.get(BYTE, sourceIndex++) & 0xff);
+				break;
+			case 2:
+				if(2 > sourceEnd - sourceIndex) {
+					throw new FormatViolationException("Truncated copy on offset " + tag);
+				}
+				l = ((b >> 2) & 0x3f) + 1;
+				o = (in.get(BYTE, sourceIndex++) & 0xff) | ((in.get(BYTE, sourceIndex++) & 0xff) << 8);
+				break;
+			default:
+				if(4 > sourceEnd - sourceIndex) {
+					throw new FormatViolationException("Truncated copy on offset " + tag);
+				}
+				l = ((b >> 2) & 0x3f) + 1;
+				o = (in.get(BYTE, sourceIndex++) & 0xffL) | ((in.get(BYTE, sourceIndex++) & 0xffL) << 8) |
+					((in.get(BYTE, sourceIndex++) & 0xffL) << 16) | ((in.get(BYTE, sourceIndex++) & 0xffL) << 24);
+				break;
+			}
+
+			if(o == 0 || o > targetIndex || l > targetEnd - targetIndex) {
+				throw new FormatViolationException("Invalid copy on offset " + tag);
+			}
+			if(o < 8) {
+				// the output repeats with a period of o, so after writing
+				// the first bytes one at a time, the same data can be copied
+				// from a multiple of o of at least eight
+				long o2 = o;
+				while(o2 < 8) {
+					o2 += o;
+				}
+				long n = Math.min(l, o2 - o);
+				for(long k = 0; k < n; k++) {
+					out.set(BYTE, targetIndex + k, out.get(BYTE, targetIndex + k - o));
+				}
+				targetIndex += n;
+				l -= n;
+				o = o2;
+			}
+			// with an offset of at least eight, every eight bytes read
+			// have been written before
+			copy(out, targetIndex - o, out, targetIndex, l);
+			targetIndex += l;
+		}
+
+		if(targetIndex < targetEnd) {
+			throw new FormatViolationException("Input data ends before the decompressed length is reached on offset " + sourceIndex);
+		}
+
+		return targetEnd;
+	}
+
+	private static void copy(MemorySegment src, long srcIndex, MemorySegment dst, long dstIndex, long length) {
+		if(length >= 64 && (src != dst || dstIndex - srcIndex >= length)) {
+			// long literals and copies without overlap
+			MemorySegment.copy(src, srcIndex, dst, dstIndex, length);
+			return;
+		}
+		long k = 0;
+		for(; k + 8 <= length; k += 8) {
+			dst.set(LONG, dstIndex + k, src.get(LONG, srcIndex + k));
+		}
+		for(; k < length; k++) {
+			dst.set(BYTE, dstIndex + k, src.get(BYTE, srcIndex + k));
+		}
+	}
+
+}
@@ -16,47 +16,21 @@
 
 package de.jarnbjo.jsnappy;
 
-class IntIterator {
+import java.util.zip.CRC32C;
 
-	int[] data;
-	int offset;
-	int key;
-
-	IntIterator() {
-	}
-
-	IntIterator(int[] data, int key) {
-		this.data = data;
-		this.key = key;
-		this.offset = data[0] * 2 + 1;
-	}
+/**
+ * Crc32C implementation for Java 9 and later, using java.util.zip.CRC32C.
+ * Loaded reflectively by Crc32C.
+ */
+class JdkCrc32C extends Crc32C {
 
-	boolean next() {
-		while(offset > 2) {
-			offset -= 2;
-			if(data[offset] == key) {
-				return true;
-			}
-		}
-		return false;
-	}
+	private final CRC32C crc = new CRC32C();
 
-	int get() {
-		return data[offset+1];
+	@Override
+	int compute(byte[] data, int offset, int length) {
+		crc.reset();
+		crc.update(data, offset, length);
+		return (int) crc.getValue();
 	}
 
-	static IntIterator EMTPY_ITERATOR = new IntIterator() {
-
-		@Override
-		boolean next() {
-			return false;
-		}
-
-		@Override
-		int get() {
-			return 0;
-		}
-
-	};
-
 }
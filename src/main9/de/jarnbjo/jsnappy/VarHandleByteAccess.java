@@ -0,0 +1,55 @@
+/*
+ *  Copyright 2011 Tor-Einar Jarnbjo
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package de.jarnbjo.jsnappy;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * ByteAccess implementation for Java 9 and later, reading multiple bytes
+ * at a time through byte array view VarHandles. Loaded reflectively by
+ * ByteAccess.
+ */
+class VarHandleByteAccess extends ByteAccess {
+
+	private static final VarHandle INT_BE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+	private static final VarHandle LONG_LE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+	@Override
+	int getInt(byte[] data, int offset) {
+		return (int) INT_BE.get(data, offset);
+	}
+
+	@Override
+	int matchLength(byte[] data, int a, int b, int maxLength) {
+		int l = 0;
+		while(l + 8 <= maxLength) {
+			long x = (long) LONG_LE.get(data, a + l) ^ (long) LONG_LE.get(data, b + l);
+			if(x != 0) {
+				// little endian, so the first differing byte is the lowest non-zero byte
+				return l + (Long.numberOfTrailingZeros(x) >> 3);
+			}
+			l += 8;
+		}
+		while(l < maxLength && data[a+l] == data[b+l]) {
+			l++;
+		}
+		return l;
+	}
+
+}
@@ -0,0 +1,83 @@
+package de.jarnbjo.jsnappy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BufferPoolTest {
+
+	@Test
+	public void testSizeClasses() {
+		BufferPool pool = new BufferPool(1 << 20);
+
+		Buffer b = pool.acquire(5000);
+		Assert.assertEquals(8192, b.getData().length);
+		pool.release(b);
+		Assert.assertEquals(8192, pool.getRetainedBytes());
+
+		// a larger size class is not served from the smaller buffer
+		Assert.assertNotSame(b, pool.acquire(8193));
+		Assert.assertSame(b, pool.acquire(4097));
+		Assert.assertEquals(0, pool.getRetainedBytes());
+
+		// buffers not allocated by the pool are kept in the size class
+		// below their capacity
+		Buffer odd = new Buffer(12000);
+		pool.release(odd);
+		Assert.assertNotSame(odd, pool.acquire(12001));
+		Assert.assertSame(odd, pool.acquire(8192));
+	}
+
+	@Test
+	public void testLimit() {
+		BufferPool pool = new BufferPool(10000);
+		Buffer b1 = pool.acquire(8192);
+		Buffer b2 = pool.acquire(8192);
+		pool.release(b1);
+		pool.release(b2);
+		Assert.assertEquals(8192, pool.getRetainedBytes());
+		Assert.assertSame(b1, pool.acquire(8192));
+		Assert.assertNotSame(b2, pool.acquire(8192));
+	}
+
+	@Test
+	public void testStreams() throws IOException {
+		byte[] data = TestUtil.createCompressibleData(100000, 1);
+
+		BufferPool pool = new BufferPool(1 << 24);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			for(int i = 0; i < 3; i++) {
+				ByteArrayOutputStream baos = new ByteArrayOutputStream();
+				SnzOutputStream out = i == 1 ?
+						new SnzMTOutputStream(baos, 4096, executor, 4, pool) :
+						new SnzOutputStream(baos, 4096, pool);
+				out.write(data);
+				out.close();
+
+				InputStream in = i == 2 ?
+						new SnzMTInputStream(new ByteArrayInputStream(baos.toByteArray()), executor, pool) :
+						new SnzInputStream(new ByteArrayInputStream(baos.toByteArray()), pool);
+				byte[] result = new byte[data.length];
+				int o = 0, l;
+				while((l = in.read(result, o, result.length - o)) > 0) {
+					o += l;
+				}
+				in.close();
+				Assert.assertEquals(data.length, o);
+				Assert.assertArrayEquals(data, result);
+				Assert.assertTrue(pool.getRetainedBytes() > 0);
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+}
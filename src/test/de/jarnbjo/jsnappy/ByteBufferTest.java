@@ -0,0 +1,95 @@
+package de.jarnbjo.jsnappy;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ByteBufferTest {
+
+	// Buffer of the given kind with the data between position and limit and
+	// garbage before and after.
+	private static ByteBuffer wrap(byte[] data, int capacity, boolean direct) {
+		ByteBuffer b = direct ? ByteBuffer.allocateDirect(capacity + 20) : ByteBuffer.allocate(capacity + 20);
+		for(int i = 0; i < b.capacity(); i++) {
+			b.put(i, (byte)0x55);
+		}
+		b.position(7);
+		b.put(data);
+		b.limit(b.position());
+		b.position(7);
+		return b;
+	}
+
+	@Test
+	public void testRoundtrip() {
+		// more than two fragments, so that the staging of direct input is used
+		for(int length : new int[] {0, 1, 100, 70000, 200000}) {
+			byte[] data = TestUtil.createCompressibleData(length, length);
+			byte[] expected = SnappyCompressor.compress(data).toByteArray();
+			for(int kind = 0; kind < 4; kind++) {
+				boolean directIn = (kind & 1) != 0, directOut = (kind & 2) != 0;
+
+				ByteBuffer in = wrap(data, length, directIn);
+				ByteBuffer compressed = wrap(new byte[0], SnappyCompressor.maxCompressedLength(length), directOut);
+				compressed.limit(compressed.capacity() - 13);
+				Assert.assertEquals(expected.length, SnappyCompressor.compress(in, compressed));
+				Assert.assertFalse(in.hasRemaining());
+				Assert.assertEquals(7 + expected.length, compressed.position());
+				Assert.assertEquals(0x55, compressed.get(6));
+				Assert.assertEquals(0x55, compressed.get(compressed.position()));
+
+				compressed.limit(compressed.position());
+				compressed.position(7);
+				byte[] actual = new byte[expected.length];
+				compressed.duplicate().get(actual);
+				Assert.assertArrayEquals(expected, actual);
+
+				ByteBuffer out = wrap(new byte[0], length, directIn);
+				out.limit(out.capacity());
+				Assert.assertEquals(length, SnappyDecompressor.getDecompressedLength(compressed));
+				Assert.assertEquals(length, SnappyDecompressor.decompress(compressed, out));
+				Assert.assertFalse(compressed.hasRemaining());
+				Assert.assertEquals(7 + length, out.position());
+				Assert.assertEquals(0x55, out.get(6));
+				Assert.assertEquals(0x55, out.get(out.position()));
+				out.flip();
+				out.position(7);
+				actual = new byte[length];
+				out.get(actual);
+				Assert.assertArrayEquals(data, actual);
+			}
+		}
+	}
+
+	@Test(expected=BufferOverflowException.class)
+	public void testCompressOverflow() {
+		SnappyCompressor.compress(ByteBuffer.allocate(100), ByteBuffer.allocateDirect(100));
+	}
+
+	@Test
+	public void testDecompressOverflow() {
+		ByteBuffer compressed = ByteBuffer.allocate(200);
+		SnappyCompressor.compress(ByteBuffer.allocate(100), compressed);
+		compressed.flip();
+		ByteBuffer out = ByteBuffer.allocateDirect(99);
+		try {
+			SnappyDecompressor.decompress(compressed, out);
+			Assert.fail("Exception was expected");
+		}
+		catch(BufferOverflowException e) {
+			Assert.assertEquals(0, compressed.position());
+			Assert.assertEquals(0, out.position());
+		}
+	}
+
+	@Test(expected=FormatViolationException.class)
+	public void testInvalidOffset() {
+		// length 8, literal "a", copy with offset 2
+		ByteBuffer in = ByteBuffer.allocateDirect(6);
+		in.put(new byte[] {8, 0, 'a', 2 | (6 << 2), 2, 0}).flip();
+		SnappyDecompressor.decompress(in, ByteBuffer.allocateDirect(8));
+	}
+
+}
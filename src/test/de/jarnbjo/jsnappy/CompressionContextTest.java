@@ -0,0 +1,63 @@
+package de.jarnbjo.jsnappy;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompressionContextTest {
+
+	@Test
+	public void testReuse() {
+		for(int effort : new int[] {1, 50, 100}) {
+			CompressionContext ctx = SnappyCompressor.newContext(effort);
+			Buffer out = new Buffer();
+			// decreasing and increasing sizes, so that stale table entries are present
+			for(int length : new int[] {10000, 100, 5000, 0, 1, 20000, 7}) {
+				byte[] data = TestUtil.createCompressibleData(length, length);
+				ctx.compress(data, 0, data.length, out);
+				Assert.assertArrayEquals(SnappyCompressor.compress(data, 0, data.length, null, effort).toByteArray(), out.toByteArray());
+				Assert.assertArrayEquals(data, SnappyDecompressor.decompress(out).toByteArray());
+			}
+		}
+	}
+
+	@Test
+	public void testOffset() {
+		byte[] data = TestUtil.createCompressibleData(3000, 1);
+		for(int effort : new int[] {1, 50, 100}) {
+			CompressionContext ctx = SnappyCompressor.newContext(effort);
+			Buffer out = ctx.compress(data, 1000, 1000, null);
+			byte[] expected = new byte[1000];
+			System.arraycopy(data, 1000, expected, 0, 1000);
+			Assert.assertArrayEquals(expected, SnappyDecompressor.decompress(out).toByteArray());
+		}
+	}
+
+	@Test
+	public void testParallel() {
+		byte[] data = TestUtil.createCompressibleData(3000000, 2);
+		ForkJoinPool pool = new ForkJoinPool(3);
+		try {
+			for(int effort : new int[] {1, 50}) {
+				// chunks of whole fragments and a shorter last chunk
+				Buffer out = SnappyCompressor.compressParallel(data, 1, data.length - 2, null, effort, pool);
+				byte[] expected = new byte[data.length - 2];
+				System.arraycopy(data, 1, expected, 0, expected.length);
+				Assert.assertArrayEquals(expected, SnappyDecompressor.decompress(out).toByteArray());
+			}
+			// below the threshold, the result is the same as for compress
+			Assert.assertArrayEquals(SnappyCompressor.compress(data, 0, 1000, null, 1).toByteArray(),
+					SnappyCompressor.compressParallel(data, 0, 1000, null, 1, pool).toByteArray());
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testIllegalEffort() {
+		SnappyCompressor.newContext(0);
+	}
+
+}
@@ -0,0 +1,69 @@
+package de.jarnbjo.jsnappy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HadoopSnappyStreamTest {
+
+	@Test
+	public void testRoundtrip() throws IOException {
+		byte[] data = TestUtil.createCompressibleData(300000, 1);
+
+		// single sub-blocks, several sub-blocks per block and a short last sub-block
+		int[][] sizes = {{65536, 65536}, {100000, 30000}, {262144, 65536}};
+		for(int[] s : sizes) {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			HadoopSnappyOutputStream out = new HadoopSnappyOutputStream(baos, s[0], s[1]);
+			out.write(data);
+			out.close();
+
+			InputStream in = new HadoopSnappyInputStream(new ByteArrayInputStream(baos.toByteArray()));
+			byte[] result = new byte[data.length];
+			int o = 0, l;
+			while((l = in.read(result, o, Math.min(result.length - o, 5000))) > 0) {
+				o += l;
+			}
+			Assert.assertEquals(-1, in.read());
+			in.close();
+			Assert.assertEquals(data.length, o);
+			Assert.assertArrayEquals(data, result);
+		}
+	}
+
+	@Test
+	public void testLayout() throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		HadoopSnappyOutputStream out = new HadoopSnappyOutputStream(baos, 10, 4);
+		out.write("abcdefghij".getBytes());
+		out.close();
+		byte[] b = baos.toByteArray();
+		// raw length, followed by the compressed length and data of three sub-blocks
+		Assert.assertEquals(10, b[3]);
+		Assert.assertEquals(6, b[7]);
+		Assert.assertEquals(6, b[17]);
+		Assert.assertEquals(4, b[27]);
+		Assert.assertEquals(32, b.length);
+	}
+
+	@Test(expected=FormatViolationException.class)
+	public void testIllegalBlockLength() throws IOException {
+		// block and sub-block lengths of 2**31 - 1
+		byte[] b = {0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xff};
+		InputStream in = new HadoopSnappyInputStream(new ByteArrayInputStream(b));
+		in.read();
+	}
+
+	@Test(expected=FormatViolationException.class)
+	public void testIllegalSubBlockLength() throws IOException {
+		// a sub-block longer than the maximum compressed length of its block
+		byte[] b = {0, 0, 0, 10, 0, 0, 0, 44};
+		InputStream in = new HadoopSnappyInputStream(new ByteArrayInputStream(b), 100);
+		in.read();
+	}
+
+}
@@ -0,0 +1,143 @@
+package de.jarnbjo.jsnappy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SeekableSnzReaderTest {
+
+	@Test
+	public void testRandomAccess() throws IOException {
+		Random r = new Random(1);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		Path snz = Files.createTempFile("jsnappy", ".snz");
+		try {
+			for(int length : new int[] {0, 1, 4096, 300001}) {
+				byte[] data = TestUtil.createCompressibleData(length, length);
+				// single and multi-threaded writers with format versions 1 and 2
+				for(int mt = 0; mt < 4; mt++) {
+					ByteArrayOutputStream baos = new ByteArrayOutputStream();
+					SnzOutputStream out = mt % 2 == 0 ? new SnzOutputStream(baos, 4096) : new SnzMTOutputStream(baos, 4096, executor);
+					out.setFormatVersion(1 + mt / 2);
+					out.setIndexed(true);
+					out.write(data);
+					out.close();
+					byte[] compressed = baos.toByteArray();
+					Files.write(snz, compressed);
+
+					// the index trailer is ignored by the stream reader
+					InputStream in = new SnzInputStream(new ByteArrayInputStream(compressed));
+					byte[] result = new byte[length];
+					int o = 0, l;
+					while(o < length && (l = in.read(result, o, length - o)) > 0) {
+						o += l;
+					}
+					Assert.assertEquals(-1, in.read());
+					Assert.assertArrayEquals(data, result);
+
+					SeekableSnzReader reader = new SeekableSnzReader(FileChannel.open(snz));
+					Assert.assertEquals(length, reader.size());
+					for(int i = 0; i < 50 && length > 0; i++) {
+						int position = r.nextInt(length);
+						ByteBuffer dst = ByteBuffer.allocate(r.nextInt(10000));
+						int n = reader.read(position, dst);
+						Assert.assertEquals(Math.min(dst.capacity(), length - position), n);
+						Assert.assertArrayEquals(Arrays.copyOfRange(data, position, position + n), Arrays.copyOf(dst.array(), n));
+					}
+					reader.seek(length);
+					Assert.assertEquals(-1, reader.read(ByteBuffer.allocate(1)));
+					reader.close();
+				}
+			}
+		}
+		finally {
+			Files.delete(snz);
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testLargeIndex() throws IOException {
+		Path snz = Files.createTempFile("jsnappy", ".snz");
+		try {
+			// more blocks than index entries are read at a time
+			byte[] data = TestUtil.createCompressibleData(100000, 1);
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			SnzOutputStream out = new SnzOutputStream(baos, 16);
+			out.setIndexed(true);
+			out.write(data);
+			out.close();
+			Files.write(snz, baos.toByteArray());
+
+			SeekableSnzReader reader = new SeekableSnzReader(FileChannel.open(snz));
+			ByteBuffer dst = ByteBuffer.allocate(data.length);
+			Assert.assertEquals(data.length, reader.read(0, dst));
+			Assert.assertArrayEquals(data, dst.array());
+			reader.close();
+		}
+		finally {
+			Files.delete(snz);
+		}
+	}
+
+	@Test(expected = FormatViolationException.class)
+	public void testIllegalIndexCount() throws IOException {
+		Path snz = Files.createTempFile("jsnappy", ".snz");
+		try {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			SnzOutputStream out = new SnzOutputStream(baos);
+			out.setIndexed(true);
+			out.write(new byte[100000]);
+			out.close();
+			byte[] compressed = baos.toByteArray();
+			// a block count of 2**28 in the footer, 16 times which overflows an int
+			compressed[compressed.length - 8] = 0x10;
+			Files.write(snz, compressed);
+			FileChannel channel = FileChannel.open(snz);
+			try {
+				new SeekableSnzReader(channel);
+			}
+			finally {
+				channel.close();
+			}
+		}
+		finally {
+			Files.delete(snz);
+		}
+	}
+
+	@Test(expected = FormatViolationException.class)
+	public void testMissingIndex() throws IOException {
+		Path snz = Files.createTempFile("jsnappy", ".snz");
+		try {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			SnzOutputStream out = new SnzOutputStream(baos);
+			out.write(new byte[100000]);
+			out.close();
+			Files.write(snz, baos.toByteArray());
+			FileChannel channel = FileChannel.open(snz);
+			try {
+				new SeekableSnzReader(channel);
+			}
+			finally {
+				channel.close();
+			}
+		}
+		finally {
+			Files.delete(snz);
+		}
+	}
+
+}
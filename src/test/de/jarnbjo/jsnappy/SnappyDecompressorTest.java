@@ -1,5 +1,9 @@
 package de.jarnbjo.jsnappy;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -20,5 +24,63 @@ public class SnappyDecompressorTest {
 		}
 		
 	}
+
+	@Test
+	public void testOverlappingCopy() {
+		// literal "abc" followed by a copy of 60 bytes with offset 3
+		byte[] data = new byte[] {63, 2 << 2, 'a', 'b', 'c', (byte)(2 | (59 << 2)), 3, 0};
+		byte[] result = SnappyDecompressor.decompress(data).toByteArray();
+		Assert.assertEquals(63, result.length);
+		for(int i = 0; i < result.length; i++) {
+			Assert.assertEquals('a' + i % 3, result[i]);
+		}
+	}
+
+	@Test
+	public void testInvalidLength() {
+		// a length of 2**31-1 cannot be reached with a single literal
+		byte[] data = new byte[] {(byte)0xff, (byte)0xff, (byte)0xff, (byte)0xff, 0x07, 0, 'a'};
+		try {
+			SnappyDecompressor.decompress(data);
+			Assert.fail("Exception was expected");
+		}
+		catch(FormatViolationException e) {
+			Assert.assertEquals(0, e.getOffset());
+			Assert.assertNotNull(e.getMessage());
+		}
+	}
+
+	@Test
+	public void testCorruptInput() {
+		byte[] data = TestUtil.createCompressibleData(5000, 1);
+		Random r = new Random(1);
+		byte[] compressed = SnappyCompressor.compress(data).toByteArray();
+		ByteBuffer direct = ByteBuffer.allocateDirect(compressed.length);
+		ByteBuffer out = ByteBuffer.allocateDirect(100000);
+
+		// corrupted and truncated blocks must only cause FormatViolationExceptions
+		for(int i=0; i<2000; i++) {
+			byte[] corrupt = compressed.clone();
+			for(int k=r.nextInt(4); k>=0; k--) {
+				corrupt[r.nextInt(corrupt.length)] = (byte) r.nextInt(256);
+			}
+			if(i % 2 == 1) {
+				corrupt = Arrays.copyOf(corrupt, r.nextInt(corrupt.length));
+			}
+			try {
+				SnappyDecompressor.decompress(corrupt);
+			}
+			catch(FormatViolationException e) {
+			}
+			direct.clear();
+			direct.put(corrupt).flip();
+			out.clear();
+			try {
+				SnappyDecompressor.decompress(direct, out);
+			}
+			catch(FormatViolationException e) {
+			}
+		}
+	}
 	
 }
@@ -0,0 +1,122 @@
+package de.jarnbjo.jsnappy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SnappyFramedStreamTest {
+
+	// "abcdabcdabcdabcd" as a compressed chunk (a literal and a copy token)
+	// followed by "snappy" as an uncompressed chunk, assembled from the format
+	// description with independently computed checksums
+	private static final byte[] FRAMED = {
+		(byte) 0xff, 0x06, 0x00, 0x00, 's', 'N', 'a', 'P', 'p', 'Y',
+		0x00, 0x0d, 0x00, 0x00, (byte) 0xac, (byte) 0xd1, (byte) 0xf6, (byte) 0xb4,
+		0x10, 0x0c, 'a', 'b', 'c', 'd', 0x2e, 0x04, 0x00,
+		0x01, 0x0a, 0x00, 0x00, 0x23, 0x0c, 0x3d, 0x29,
+		's', 'n', 'a', 'p', 'p', 'y',
+	};
+
+	@Test
+	public void testChecksum() {
+		byte[] data = "123456789".getBytes();
+		Assert.assertEquals(0xe3069283, new Crc32C().compute(data, 0, data.length));
+		Assert.assertEquals(0xe3069283, Crc32C.newInstance().compute(data, 0, data.length));
+	}
+
+	@Test
+	public void testRoundtrip() throws IOException {
+		byte[] text = TestUtil.createCompressibleData(200000, 1);
+		byte[] random = new byte[100000];
+		new Random(1).nextBytes(random);
+
+		for(byte[] data : new byte[][] {text, random}) {
+			byte[] compressed = compress(data);
+			InputStream in = new SnappyFramedInputStream(new ByteArrayInputStream(compressed));
+			byte[] result = new byte[data.length];
+			int o = 0, l;
+			while((l = in.read(result, o, Math.min(result.length - o, 5000))) > 0) {
+				o += l;
+			}
+			Assert.assertEquals(-1, in.read());
+			in.close();
+			Assert.assertEquals(data.length, o);
+			Assert.assertArrayEquals(data, result);
+		}
+	}
+
+	@Test
+	public void testDecode() throws IOException {
+		InputStream in = new SnappyFramedInputStream(new ByteArrayInputStream(FRAMED));
+		Assert.assertArrayEquals("abcdabcdabcdabcdsnappy".getBytes(), TestUtil.readFully(in));
+	}
+
+	@Test
+	public void testSkippableChunks() throws IOException {
+		// a padding chunk of 2**20 bytes and a reserved skippable chunk
+		// between the stream identifier and the data chunks
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		baos.write(FRAMED, 0, 10);
+		baos.write(new byte[] {(byte) 0xfe, 0x00, 0x00, 0x10});
+		baos.write(new byte[1 << 20]);
+		baos.write(new byte[] {(byte) 0x80, 0x03, 0x00, 0x00, 1, 2, 3});
+		baos.write(FRAMED, 10, FRAMED.length - 10);
+		InputStream in = new SnappyFramedInputStream(new ByteArrayInputStream(baos.toByteArray()));
+		Assert.assertArrayEquals("abcdabcdabcdabcdsnappy".getBytes(), TestUtil.readFully(in));
+	}
+
+	@Test
+	public void testIllegalChunkLength() throws IOException {
+		// compressed and uncompressed chunks of 2**24 - 1 bytes, which are
+		// rejected before any of their data is read
+		for(int type : new int[] {0x00, 0x01}) {
+			byte[] b = Arrays.copyOf(FRAMED, 14);
+			b[10] = (byte) type;
+			b[11] = b[12] = b[13] = (byte) 0xff;
+			InputStream in = new SnappyFramedInputStream(new ByteArrayInputStream(b));
+			try {
+				in.read();
+				Assert.fail();
+			}
+			catch(FormatViolationException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testEncode() throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		SnappyFramedOutputStream out = new SnappyFramedOutputStream(baos);
+		out.write("abcdabcdabcdabcd".getBytes());
+		out.flush();
+		// too short to be compressed
+		out.write("snappy".getBytes());
+		out.close();
+		Assert.assertArrayEquals(FRAMED, baos.toByteArray());
+	}
+
+	@Test(expected = FormatViolationException.class)
+	public void testChecksumMismatch() throws IOException {
+		byte[] compressed = compress("abcabcabcabcabcabcabcabc".getBytes());
+		// first checksum byte after the stream identifier and chunk header
+		compressed[14] ^= 1;
+		InputStream in = new SnappyFramedInputStream(new ByteArrayInputStream(compressed));
+		while(in.read() >= 0);
+	}
+
+	private static byte[] compress(byte[] data) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		SnappyFramedOutputStream out = new SnappyFramedOutputStream(baos);
+		out.write(data);
+		out.close();
+		return baos.toByteArray();
+	}
+
+}
@@ -0,0 +1,101 @@
+package de.jarnbjo.jsnappy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SnzFilesTest {
+
+	@Test
+	public void testRoundtrip() throws IOException {
+		Path src = Files.createTempFile("jsnappy", ".dat");
+		Path snz = Files.createTempFile("jsnappy", ".snz");
+		Path dst = Files.createTempFile("jsnappy", ".dat");
+		try {
+			for(int length : new int[] {0, 1, 4096, 300000}) {
+				for(int blockSize : new int[] {1 << 12, 1 << 16}) {
+					byte[] data = TestUtil.createCompressibleData(length, length);
+					Files.write(src, data);
+					SnzFiles.compress(src, snz, blockSize, 10);
+
+					// same data as written by SnzOutputStream
+					ByteArrayOutputStream baos = new ByteArrayOutputStream();
+					SnzOutputStream out = new SnzOutputStream(baos, blockSize);
+					out.setCompressionEffort(10);
+					out.write(data);
+					out.close();
+					Assert.assertArrayEquals(baos.toByteArray(), Files.readAllBytes(snz));
+
+					SnzFiles.decompress(snz, dst);
+					Assert.assertArrayEquals(data, Files.readAllBytes(dst));
+					Assert.assertArrayEquals(data, TestUtil.readFully(new SnzInputStream(new ByteArrayInputStream(baos.toByteArray()))));
+
+					// format version 2
+					baos = new ByteArrayOutputStream();
+					out = new SnzOutputStream(baos, blockSize);
+					out.setFormatVersion(2);
+					out.write(data);
+					out.close();
+					Files.write(snz, baos.toByteArray());
+					SnzFiles.decompress(snz, dst);
+					Assert.assertArrayEquals(data, Files.readAllBytes(dst));
+				}
+			}
+		}
+		finally {
+			Files.delete(src);
+			Files.delete(snz);
+			Files.delete(dst);
+		}
+	}
+
+	@Test(expected=FormatViolationException.class)
+	public void testIllegalBlockLength() throws IOException {
+		Path snz = Files.createTempFile("jsnappy", ".snz");
+		Path dst = Files.createTempFile("jsnappy", ".dat");
+		try {
+			// block size 2**16 and a block length of 2**31 - 1
+			Files.write(snz, new byte[] {'S', 'N', 'Z', 1, 16, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07});
+			SnzFiles.decompress(snz, dst);
+		}
+		finally {
+			Files.delete(snz);
+			Files.delete(dst);
+		}
+	}
+
+	@Test
+	public void testIllegalVersion2BlockHeader() throws IOException {
+		Path snz = Files.createTempFile("jsnappy", ".snz");
+		Path dst = Files.createTempFile("jsnappy", ".dat");
+		try {
+			// block size 2**12, followed by a block length, flags and uncompressed length
+			byte[][] headers = {
+				{'S', 'N', 'Z', 2, 12, 3, 0, (byte) 0x81, 0x20}, // longer than the block size
+				{'S', 'N', 'Z', 2, 12, 3, 0, 0},                  // empty block
+				{'S', 'N', 'Z', 2, 12, 3, 1, 4},                  // stored block length mismatch
+				{'S', 'N', 'Z', 2, 12, 3, 0x40, 3},               // unknown flag
+			};
+			for(byte[] header : headers) {
+				Files.write(snz, header);
+				try {
+					SnzFiles.decompress(snz, dst);
+					Assert.fail();
+				}
+				catch(FormatViolationException e) {
+					// expected
+				}
+			}
+		}
+		finally {
+			Files.delete(snz);
+			Files.delete(dst);
+		}
+	}
+
+}
@@ -0,0 +1,85 @@
+package de.jarnbjo.jsnappy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SnzInputStreamTest {
+
+	@Test
+	public void testShortReads() throws IOException {
+		byte[] data = TestUtil.createCompressibleData(200000, 1);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		SnzOutputStream out = new SnzOutputStream(baos, 32768);
+		out.write(data);
+		out.close();
+
+		for(int mt = 0; mt < 2; mt++) {
+			// the underlying stream returns no more than 7 bytes per call
+			InputStream source = new ByteArrayInputStream(baos.toByteArray()) {
+				@Override
+				public synchronized int read(byte[] b, int off, int len) {
+					return super.read(b, off, Math.min(len, 7));
+				}
+			};
+			InputStream in = mt == 0 ? new SnzInputStream(source) : new SnzMTInputStream(source);
+			byte[] result = new byte[data.length];
+			int o = 0, l;
+			while((l = in.read(result, o, Math.min(result.length - o, 5000))) > 0) {
+				o += l;
+			}
+			in.close();
+			Assert.assertEquals(data.length, o);
+			Assert.assertArrayEquals(data, result);
+		}
+	}
+
+	@Test
+	public void testVersion2() throws IOException {
+		byte[] data = new byte[100000];
+		for(int i=0; i<data.length; i++) {
+			data[i] = (byte)(i % 251);
+		}
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		SnzOutputStream out = new SnzOutputStream(baos, 32768);
+		out.setFormatVersion(2);
+		out.write(data);
+		out.close();
+		byte[] compressed = baos.toByteArray();
+		Assert.assertEquals(2, compressed[3]);
+
+		// a block with optional fields, which are skipped
+		ByteArrayOutputStream extended = new ByteArrayOutputStream();
+		extended.write(new byte[] {'S', 'N', 'Z', 2, 4});
+		extended.write(new byte[] {5, (byte) 0x80, 3, 2, 'x', 'y', 3, 8, 'a', 'b', 'c'});
+		extended.write(0);
+
+		for(int mt = 0; mt < 2; mt++) {
+			InputStream in = mt == 0 ?
+				new SnzInputStream(new ByteArrayInputStream(compressed)) :
+				new SnzMTInputStream(new ByteArrayInputStream(compressed));
+			byte[] result = new byte[data.length];
+			int o = 0, l;
+			while((l = in.read(result, o, Math.min(result.length - o, 50000))) > 0) {
+				o += l;
+			}
+			in.close();
+			Assert.assertEquals(data.length, o);
+			Assert.assertArrayEquals(data, result);
+
+			in = mt == 0 ?
+				new SnzInputStream(new ByteArrayInputStream(extended.toByteArray())) :
+				new SnzMTInputStream(new ByteArrayInputStream(extended.toByteArray()));
+			result = new byte[3];
+			Assert.assertEquals(3, in.read(result));
+			Assert.assertEquals(-1, in.read());
+			in.close();
+			Assert.assertArrayEquals("abc".getBytes(), result);
+		}
+	}
+
+}
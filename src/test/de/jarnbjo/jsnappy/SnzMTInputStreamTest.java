@@ -0,0 +1,94 @@
+package de.jarnbjo.jsnappy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SnzMTInputStreamTest {
+
+	@Test
+	public void testUnstartedBlocks() throws IOException {
+		byte[] data = TestUtil.createCompressibleData(100000, 1);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		SnzOutputStream out = new SnzOutputStream(baos, 4096);
+		out.write(data);
+		out.close();
+
+		// the executor runs the blocks only after they have been claimed by
+		// the reading thread, which decompresses all of them itself
+		final List<Runnable> submitted = new ArrayList<Runnable>();
+		InputStream in = new SnzMTInputStream(new ByteArrayInputStream(baos.toByteArray()), new Executor() {
+			public void execute(Runnable command) {
+				submitted.add(command);
+				if(submitted.size() > 5) {
+					submitted.remove(0).run();
+				}
+			}
+		});
+
+		// reads alternate between whole blocks and smaller parts
+		byte[] result = new byte[data.length];
+		int o = 0, l;
+		for(int i = 0; (l = in.read(result, o, Math.min(result.length - o, i % 2 == 0 ? 4096 : 1000))) > 0; i++) {
+			o += l;
+		}
+		in.close();
+		Assert.assertEquals(data.length, o);
+		Assert.assertArrayEquals(data, result);
+	}
+
+	@Test(timeout=10000)
+	public void testFailingWorker() throws IOException {
+		byte[] data = TestUtil.createCompressibleData(100000, 1);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		SnzOutputStream out = new SnzOutputStream(baos, 4096);
+		out.write(data);
+		out.close();
+
+		// the buffers fail with an error when accessed by a worker, which
+		// runs each block before the reading thread can claim it
+		BufferPool pool = new BufferPool(0) {
+			@Override
+			public Buffer acquire(int capacity) {
+				return new Buffer(capacity) {
+					@Override
+					public byte[] getData() {
+						if(Thread.currentThread().getName().equals("failing-worker")) {
+							throw new OutOfMemoryError("worker failure");
+						}
+						return super.getData();
+					}
+				};
+			}
+		};
+		InputStream in = new SnzMTInputStream(new ByteArrayInputStream(baos.toByteArray()), new Executor() {
+			public void execute(Runnable command) {
+				Thread t = new Thread(command, "failing-worker");
+				t.start();
+				try {
+					t.join();
+				}
+				catch(InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		}, pool);
+
+		try {
+			in.read(new byte[data.length]);
+			Assert.fail();
+		}
+		catch(IOException e) {
+			Assert.assertTrue(e.getCause() instanceof OutOfMemoryError);
+		}
+		in.close();
+	}
+
+}
@@ -0,0 +1,63 @@
+package de.jarnbjo.jsnappy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SnzMTOutputStreamTest {
+
+	@Test
+	public void testSameOutput() throws IOException {
+		byte[] data = TestUtil.createCompressibleData(100000, 1);
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			for(int maxBlocksInFlight : new int[] {1, 2, 8}) {
+				ByteArrayOutputStream expected = new ByteArrayOutputStream();
+				ByteArrayOutputStream actual = new ByteArrayOutputStream();
+				SnzOutputStream st = new SnzOutputStream(expected, 4096);
+				SnzOutputStream mt = new SnzMTOutputStream(actual, 4096, executor, maxBlocksInFlight);
+				for(SnzOutputStream out : new SnzOutputStream[] {st, mt}) {
+					// the effort is changed between blocks
+					out.write(data, 0, 50000);
+					out.setCompressionEffort(60);
+					out.write(data, 50000, 50000);
+					out.close();
+				}
+				Assert.assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testRejected() throws IOException {
+		SnzOutputStream out = new SnzMTOutputStream(new ByteArrayOutputStream(), 4096, new Executor() {
+			public void execute(Runnable command) {
+				throw new RejectedExecutionException();
+			}
+		});
+		try {
+			out.write(new byte[5000]);
+			Assert.fail("IOException was expected");
+		}
+		catch(IOException e) {
+			Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+		}
+		try {
+			out.close();
+			Assert.fail("IOException was expected");
+		}
+		catch(IOException e) {
+			// the failure is reported again
+		}
+	}
+
+}
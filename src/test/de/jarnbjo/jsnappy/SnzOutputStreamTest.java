@@ -1,7 +1,10 @@
 package de.jarnbjo.jsnappy;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
 
 import junit.framework.Assert;
 
@@ -53,4 +56,29 @@ public class SnzOutputStreamTest {
 		}
 	}
 
+	@Test
+	public void testStoredBlocks() throws IOException {
+		// random data followed by compressible data
+		byte[] data = new byte[200000];
+		new Random(1).nextBytes(data);
+		Arrays.fill(data, 100000, data.length, (byte) 'x');
+
+		// all blocks are stored with a threshold of 0
+		for(double threshold : new double[] {0, SnzOutputStream.DEFAULT_STORE_THRESHOLD}) {
+			ByteArrayOutputStream v2 = new ByteArrayOutputStream();
+			SnzOutputStream out = new SnzOutputStream(v2, 32768);
+			out.setFormatVersion(2);
+			out.setStoreThreshold(threshold);
+			out.write(data);
+			out.close();
+			byte[] compressed = v2.toByteArray();
+			// flags of the first block, following the 3 byte block length
+			Assert.assertEquals(SnzOutputStream.FLAG_STORED, compressed[8]);
+			Assert.assertEquals(threshold == 0, compressed.length > data.length);
+
+			Assert.assertTrue(Arrays.equals(data, TestUtil.readFully(new SnzInputStream(new ByteArrayInputStream(compressed)))));
+			Assert.assertTrue(Arrays.equals(data, TestUtil.readFully(new SnzMTInputStream(new ByteArrayInputStream(compressed)))));
+		}
+	}
+
 }
@@ -23,9 +23,26 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Random;
 
 public class TestUtil {
 
+	public static byte[] createCompressibleData(int length, long seed) {
+		Random r = new Random(seed);
+		byte[] data = new byte[length];
+		for(int i=0; i<length; i++) {
+			// runs of a small alphabet, so that all token types are used
+			data[i] = (byte)('a' + r.nextInt(4));
+			if(r.nextInt(100) == 0) {
+				int run = Math.min(length - i - 1, r.nextInt(200));
+				for(int k = 0; k < run; k++, i++) {
+					data[i + 1] = data[i];
+				}
+			}
+		}
+		return data;
+	}
+
 	public static byte[] readResource(String path) throws IOException {
 		return readFully(TestUtil.class.getResourceAsStream(path));
 	}
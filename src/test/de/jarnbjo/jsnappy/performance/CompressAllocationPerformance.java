@@ -0,0 +1,56 @@
+package de.jarnbjo.jsnappy.performance;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+
+import de.jarnbjo.jsnappy.Buffer;
+import de.jarnbjo.jsnappy.CompressionContext;
+import de.jarnbjo.jsnappy.SnappyCompressor;
+
+/**
+ * Prints the number of bytes allocated by the compressor per MB of input
+ * data. Requires a JVM providing com.sun.management.ThreadMXBean.
+ */
+public class CompressAllocationPerformance {
+
+	public static void main(String[] args) throws Exception {
+
+		com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long tid = Thread.currentThread().getId();
+
+		int[] efforts = {1, 50, 100};
+
+		for(int effort : efforts) {
+			long lall = 0, aall = 0;
+
+			for(File f : new File("resources/testdata/").listFiles()) {
+				RandomAccessFile raf = new RandomAccessFile(f, "r");
+				byte[] data = new byte[(int) raf.length()];
+				raf.readFully(data);
+				raf.close();
+
+				CompressionContext ctx = SnappyCompressor.newContext(effort);
+				Buffer b = new Buffer();
+
+				// warm up, so that the context and the buffer have reached their final size
+				ctx.compress(data, 0, data.length, b);
+
+				int iterations = 5;
+
+				long a0 = mx.getThreadAllocatedBytes(tid);
+				for(int i=0; i<iterations; i++) {
+					ctx.compress(data, 0, data.length, b);
+				}
+				long a1 = mx.getThreadAllocatedBytes(tid);
+				lall += (long)data.length * iterations;
+				aall += a1 - a0;
+
+				System.out.println(f.getName() + " (" + effort + "): " + String.format("%.1f", (a1 - a0) * 1024. * 1024. / ((long)data.length * iterations)) + " bytes/MB");
+			}
+
+			System.out.println("all (" + effort + "): " + String.format("%.1f", aall * 1024. * 1024. / lall) + " bytes/MB");
+		}
+	}
+
+}
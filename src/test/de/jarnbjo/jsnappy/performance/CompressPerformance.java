@@ -8,14 +8,20 @@ import de.jarnbjo.jsnappy.SnappyCompressor;
 
 public class CompressPerformance {
 
-	@SuppressWarnings("unused")
 	public static void main(String[] args) throws Exception {
 
-		long lall = 0, tall = 0;
+		int[] efforts = {1, 10, 20, 29, 30, 40, 50, 60, 70, 80, 90, 99, 100};
+
+		if(args.length > 0) {
+			efforts = new int[args.length];
+			for(int i=0; i<args.length; i++) {
+				efforts[i] = Integer.parseInt(args[i]);
+			}
+		}
 
-		int[] efforts = {1, 50, 100};
-		
 		for(int effort : efforts) {
+			long lall = 0, mall = 0, tall = 0;
+
 			for(File f : new File("resources/testdata/").listFiles()) {
 				RandomAccessFile raf = new RandomAccessFile(f, "r");
 				byte[] data = new byte[(int) raf.length()];
@@ -33,12 +39,13 @@ public class CompressPerformance {
 				}
 				long t1 = System.nanoTime();
 				lall += l;
+				mall += m;
 				tall += (t1-t0);
 	
 				// System.out.println(f.getName() + ": " + String.format("%.2f", (l * 1000000000. / (t1-t0))/(1024*1024)));
 			}
 	
-			System.out.println("all (" + effort + "): " + String.format("%.2f", (lall * 1000000000. / (tall))/(1024*1024)));
+			System.out.println("all (" + effort + "): " + String.format("%.2f MB/s, %.1f%%", (lall * 1000000000. / (tall))/(1024*1024), 100. * mall / lall));
 		}
 	}
 
@@ -0,0 +1,42 @@
+package de.jarnbjo.jsnappy;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SnappyMemorySegmentsTest {
+
+	@Test
+	public void testRoundtrip() {
+		try(Arena arena = Arena.ofConfined()) {
+			for(int length : new int[] {0, 1, 100, 200000}) {
+				byte[] data = TestUtil.createCompressibleData(length, length);
+				byte[] expected = SnappyCompressor.compress(data).toByteArray();
+
+				MemorySegment in = arena.allocate(length + 10).asSlice(3, length);
+				MemorySegment.copy(data, 0, in, ValueLayout.JAVA_BYTE, 0, length);
+				MemorySegment compressed = arena.allocate(SnappyMemorySegments.maxCompressedLength(length));
+				long compressedLength = SnappyMemorySegments.compress(in, compressed);
+				Assert.assertArrayEquals(expected, compressed.asSlice(0, compressedLength).toArray(ValueLayout.JAVA_BYTE));
+
+				compressed = compressed.asSlice(0, compressedLength);
+				Assert.assertEquals(length, SnappyMemorySegments.getDecompressedLength(compressed));
+				MemorySegment out = arena.allocate(length + 1);
+				Assert.assertEquals(length, SnappyMemorySegments.decompress(compressed, out));
+				Assert.assertArrayEquals(data, out.asSlice(0, length).toArray(ValueLayout.JAVA_BYTE));
+				Assert.assertEquals(0, out.get(ValueLayout.JAVA_BYTE, length));
+			}
+		}
+	}
+
+	@Test(expected=FormatViolationException.class)
+	public void testInvalidOffset() {
+		// length 8, literal "a", copy with offset 2
+		MemorySegment in = MemorySegment.ofArray(new byte[] {8, 0, 'a', 2 | (6 << 2), 2, 0});
+		SnappyMemorySegments.decompress(in, MemorySegment.ofArray(new byte[8]));
+	}
+
+}